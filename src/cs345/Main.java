@@ -7,8 +7,10 @@
 package cs345;
 
 import cs345.model.ModelFactory;
+import cs345.runner.BatchRunner;
 import cs345.runner.TextRunner;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Properties;
 
@@ -18,6 +20,17 @@ import java.util.Properties;
  *   1) Fetch the properties file and parse it.
  *   2) construct an instance of the TextView class and call the run
  *      method on that instance.
+ *
+ * The command line arguments may be one of:
+ *   --journal FILE  record the commands that change the game in FILE
+ *   --replay FILE   rebuild the game from the journal FILE, then continue
+ *                   the game, appending to the journal
+ *   --batch SCRIPT FIRST LAST
+ *                   run the commands in SCRIPT once for each seed from FIRST
+ *                   to LAST and output population statistics (see
+ *                   BatchRunner)
+ * followed by any number of name=value arguments. Each name=value replaces
+ * a property.
  */
 public class Main {
 
@@ -27,7 +40,7 @@ public class Main {
      * Get the external Properties file and parse it. Call TextView
      * to run the game.
      *
-     * @param args command line arguments (unused)
+     * @param args command line arguments
      * @throws Exception allows Exceptions to pass out of main
      */
     public static void main(String[] args) throws Exception {
@@ -37,7 +50,41 @@ public class Main {
         }
         Properties defaults = new Properties();
         defaults.load(propsFile);
-        TextRunner ui = new TextRunner(new ModelFactory(), defaults);
+        int options = args.length > 0 && args[0].equals("--batch") ? 4
+                : args.length > 0 && args[0].startsWith("--") ? 2 : 0;
+        if (args.length < options) {
+            printUsage();
+            return;
+        }
+        for (int i = options; i < args.length; i++) {
+            int equals = args[i].indexOf('=');
+            if (equals <= 0) {
+                System.err.println("Not a property setting: " + args[i]);
+                return;
+            }
+            defaults.setProperty(args[i].substring(0, equals), args[i].substring(equals + 1));
+        }
+        if (options == 4) {
+            new BatchRunner(defaults, new File(args[1]), System.out)
+                    .run(Long.parseLong(args[2]), Long.parseLong(args[3]));
+            return;
+        }
+        TextRunner ui;
+        if (options == 2 && args[0].equals("--journal")) {
+            ui = TextRunner.withJournal(new ModelFactory(), defaults, new File(args[1]));
+        } else if (options == 2 && args[0].equals("--replay")) {
+            ui = TextRunner.replay(new ModelFactory(), defaults, new File(args[1]));
+        } else if (options == 0) {
+            ui = new TextRunner(new ModelFactory(), defaults);
+        } else {
+            printUsage();
+            return;
+        }
         ui.run();
     }
+
+    private static void printUsage() {
+        System.err.println("Usage: Main [--journal FILE | --replay FILE"
+                + " | --batch SCRIPT FIRST LAST] [name=value ...]");
+    }
 }
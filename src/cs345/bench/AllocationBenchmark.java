@@ -0,0 +1,91 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.bench;
+
+import cs345.model.Cs345Opolis;
+import cs345.model.GridLocation;
+import cs345.model.Simulator;
+import cs345.model.SimulatorTime;
+import cs345.model.cell.Residential;
+
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+/**
+ * Measure the memory allocated while a city in steady state is stepped.
+ *
+ * A city of residential zones is stepped until the JIT has compiled the
+ * step, then the bytes allocated by the thread while it advances the city
+ * are counted with the allocation counter of the JVM
+ * (com.sun.management.ThreadMXBean.getThreadAllocatedBytes). Each step runs
+ * and reschedules the zone updates and the period actions, which are
+ * scheduled by step (Simulator.addActionAt), so the count is expected to be
+ * zero. The count is made with each Simulator.QueueType.
+ *
+ * The JIT may still recompile or deoptimize the step now and then, which
+ * allocates a few hundred bytes once. So the city is advanced for several
+ * rounds and the smallest count is reported: an allocation made by the step
+ * itself is counted in every round.
+ *
+ * Usage: AllocationBenchmark [zones [years [rounds]]], by default 1000
+ * zones, 10 years and 5 rounds.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class AllocationBenchmark {
+
+    /* Years stepped before counting, so the JIT has compiled the step. */
+    private static final int WARMUP_YEARS = 20;
+
+    public static void main(String[] args) {
+        int zones = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int years = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        int steps = years * SimulatorTime.YEAR * Simulator.STEPS_PER_PERIOD;
+
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Allocation counters are not supported by this JVM");
+            return;
+        }
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported()) {
+            System.out.println("Allocation counters are not supported by this JVM");
+            return;
+        }
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        System.out.printf("%d zones, %d steps, least of %d rounds%n", zones, steps, rounds);
+        for (Simulator.QueueType queue : Simulator.QueueType.values()) {
+            Cs345Opolis game = newCity(zones, queue);
+            game.advance(WARMUP_YEARS * SimulatorTime.YEAR * Simulator.STEPS_PER_PERIOD);
+            long thread = Thread.currentThread().getId();
+            long bytes = Long.MAX_VALUE;
+            for (int round = 0; round < rounds; round++) {
+                long before = threads.getThreadAllocatedBytes(thread);
+                game.advance(steps);
+                bytes = Math.min(bytes, threads.getThreadAllocatedBytes(thread) - before);
+            }
+            System.out.printf("%s: %d bytes allocated (%.3f per step)%n",
+                    queue, bytes, (double) bytes / steps);
+        }
+    }
+
+    /* Build a city of zones with the given queue type. */
+    private static Cs345Opolis newCity(int zones, Simulator.QueueType queue) {
+        int side = (int) Math.ceil(Math.sqrt(zones));
+        Properties props = new Properties();
+        props.setProperty(Cs345Opolis.GRID_WIDTH, Integer.toString(Math.max(20, 3 * side)));
+        props.setProperty(Cs345Opolis.GRID_HEIGHT, Integer.toString(Math.max(20, 3 * side)));
+        props.setProperty(Simulator.SIMULATOR_QUEUE_PROP, queue.name());
+        Cs345Opolis game = Cs345Opolis.newCity(props);
+        for (int i = 0; i < zones; i++) {
+            new Residential(game, new GridLocation(3 * (i % side) + 1, 3 * (i / side) + 1));
+        }
+        return game;
+    }
+}
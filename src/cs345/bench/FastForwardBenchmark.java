@@ -0,0 +1,152 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.bench;
+
+import cs345.model.Cs345Opolis;
+import cs345.model.GridLocation;
+import cs345.model.Simulator;
+import cs345.model.SimulatorTime;
+import cs345.model.cell.Residential;
+
+import java.util.Properties;
+
+/**
+ * Compare fast forward (Cs345Opolis.fastForward) with exact stepping.
+ *
+ * Each run builds a city of residential zones on an empty grid and steps it
+ * the given number of years, once exactly and once with fast forward, using
+ * the same seed. The results over all runs are compared:
+ *
+ *   - the time taken by each mode
+ *   - the mean zone population and the mean total population, with a 95%
+ *     confidence interval for the difference between the modes
+ *   - the total variation distance between the distributions of zone
+ *     population, and the distance expected from sampling alone
+ *
+ * Usage: FastForwardBenchmark [zones [years [runs]]], by default 400 zones,
+ * 100 years and 20 runs.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class FastForwardBenchmark {
+
+    private static final int MAX_POPULATION = 64; // Histogram size
+
+    public static void main(String[] args) {
+        int zones = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+        int years = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+        int steps = years * SimulatorTime.YEAR * Simulator.STEPS_PER_PERIOD;
+
+        Result exact = new Result();
+        Result fast = new Result();
+        for (int run = 0; run < runs; run++) {
+            exact.add(runCity(zones, steps, run, false));
+            fast.add(runCity(zones, steps, run, true));
+        }
+
+        System.out.printf("%d zones, %d years, %d runs%n", zones, years, runs);
+        System.out.printf("time: exact %.1f ms, fast %.1f ms (%.1fx)%n",
+                exact.nanos / 1e6, fast.nanos / 1e6, (double) exact.nanos / fast.nanos);
+        compare("zone population", exact.zoneStats, fast.zoneStats);
+        compare("total population", exact.totalStats, fast.totalStats);
+
+        double tv = 0;
+        for (int pop = 0; pop < MAX_POPULATION; pop++) {
+            tv += Math.abs((double) exact.histogram[pop] / exact.zoneStats.n
+                    - (double) fast.histogram[pop] / fast.zoneStats.n);
+        }
+        tv /= 2;
+        // The expected distance between two samples of n from the same
+        // distribution is at most about sqrt(states / n)
+        double noise = Math.sqrt((double) MAX_POPULATION / exact.zoneStats.n);
+        System.out.printf("zone population distance: %.4f (sampling noise up to %.4f)%n", tv, noise);
+    }
+
+    /* Output the means of both modes with a 95% confidence interval for the
+     * difference. */
+    private static void compare(String name, Moments exact, Moments fast) {
+        double diff = fast.mean() - exact.mean();
+        double halfWidth = 1.96 * Math.sqrt(exact.variance() / exact.n + fast.variance() / fast.n);
+        System.out.printf("%s: exact %.2f, fast %.2f, difference %+.2f +- %.2f%n",
+                name, exact.mean(), fast.mean(), diff, halfWidth);
+    }
+
+    /* Build and step a city, returning the final populations. The last
+     * element is the total population. */
+    private static int[] runCity(int zones, int steps, int seed, boolean fastForward) {
+        int side = (int) Math.ceil(Math.sqrt(zones));
+        Properties props = new Properties();
+        props.setProperty(Cs345Opolis.GRID_WIDTH, Integer.toString(Math.max(20, 3 * side)));
+        props.setProperty(Cs345Opolis.GRID_HEIGHT, Integer.toString(Math.max(20, 3 * side)));
+        props.setProperty(Cs345Opolis.PRNG_SEED, Integer.toString(seed));
+        Cs345Opolis game = Cs345Opolis.newCity(props);
+
+        Residential[] cells = new Residential[zones];
+        for (int i = 0; i < zones; i++) {
+            cells[i] = new Residential(game, new GridLocation(3 * (i % side) + 1, 3 * (i / side) + 1));
+        }
+        long start = System.nanoTime();
+        if (fastForward) {
+            game.fastForward(steps);
+        } else {
+            game.advance(steps);
+        }
+        lastNanos = System.nanoTime() - start;
+
+        int[] result = new int[zones + 1];
+        for (int i = 0; i < zones; i++) {
+            result[i] = game.getResidentialSystem().getPopulation(cells[i]);
+        }
+        result[zones] = game.curResPop;
+        return result;
+    }
+
+    private static long lastNanos;
+
+    /**
+     * The results of all the runs of one mode.
+     */
+    private static class Result {
+        long nanos = 0;
+        final int[] histogram = new int[MAX_POPULATION];
+        final Moments zoneStats = new Moments();
+        final Moments totalStats = new Moments();
+
+        void add(int[] populations) {
+            nanos += lastNanos;
+            for (int i = 0; i < populations.length - 1; i++) {
+                histogram[Math.min(populations[i], MAX_POPULATION - 1)]++;
+                zoneStats.add(populations[i]);
+            }
+            totalStats.add(populations[populations.length - 1]);
+        }
+    }
+
+    /**
+     * Count, mean and variance of a sample.
+     */
+    private static class Moments {
+        long n = 0;
+        double sum = 0;
+        double sumSquares = 0;
+
+        void add(double x) {
+            n++;
+            sum += x;
+            sumSquares += x * x;
+        }
+
+        double mean() {
+            return sum / n;
+        }
+
+        double variance() {
+            return n < 2 ? 0 : (sumSquares - sum * sum / n) / (n - 1);
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.bench;
+
+import cs345.model.Cell;
+import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
+import cs345.model.GridLocation;
+import cs345.model.GridRectangle;
+import cs345.model.MapGenerator;
+import cs345.model.cell.CellType;
+import cs345.model.cell.Dirt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Compare the region methods of Grid (forEachInRect, allInRect and
+ * getRowSpan) with the loops over cellAt they replaced, and the occupancy
+ * index of Grid.allBuildable with allInRect.
+ *
+ * A generated map of the given size is read in these ways:
+ *
+ *   - scan: count the woods of the whole map, visiting the cells column by
+ *     column with cellAt, or with forEachInRect
+ *   - buildable: test every 3 by 3 region of the map for buildable cells,
+ *     as the zone command does, with cellAt, or with allInRect
+ *   - rows: read the map a row at a time, with cellAt, or with getRowSpan
+ *   - indexed: test every 3 by 3 region for buildable cells with allInRect,
+ *     or with allBuildable
+ *   - sites: list the centers of every buildable 3 by 3 region, testing
+ *     each with allBuildable, or with findBuildableSites
+ *   - indexed plots: test every 16 by 16 region with allInRect, or with
+ *     allBuildable. The cells are only read if every cell so far passes,
+ *     so the map is first cleared to DIRT.
+ *
+ * Each case is timed several times and the best time is reported, so the
+ * first rounds warm up the JIT.
+ *
+ * Usage: GridRegionBenchmark [size [storage [rounds]]], by default a 2000 by
+ * 2000 map, CELLS storage and 10 rounds.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class GridRegionBenchmark {
+
+    /* Keeps the results of each case live, so they are not optimized away. */
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        String storage = args.length > 1 ? args[1] : Grid.StorageType.CELLS.name();
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Properties props = new Properties();
+        props.setProperty(Cs345Opolis.GRID_WIDTH, Integer.toString(size));
+        props.setProperty(Cs345Opolis.GRID_HEIGHT, Integer.toString(size));
+        props.setProperty(Grid.GRID_STORAGE_PROP, storage);
+        props.setProperty(MapGenerator.RANDOM_SEED_PROP, "345");
+        Cs345Opolis game = Cs345Opolis.newCity(props);
+        game.newMapGrid(size, size, new MapGenerator(props));
+        Grid grid = game.getGrid();
+
+        System.out.printf("%d x %d %s map, best of %d rounds%n", size, size, storage, rounds);
+        compare("scan", rounds, () -> scanCells(grid), () -> scanRegion(grid));
+        compare("buildable", rounds, () -> buildableCells(grid), () -> buildableRegion(grid, 3));
+        compare("rows", rounds, () -> rowsCells(grid), () -> rowsSpan(grid));
+        compare("indexed", "allInRect", "index", rounds,
+                () -> buildableRegion(grid, 3), () -> buildableIndex(grid, 3));
+        compare("sites", "allBuildable", "find", rounds,
+                () -> sitesIndex(grid), () -> sites(grid));
+        grid.fillRect(new GridRectangle(0, 0, size, size), Dirt.DIRT);
+        compare("indexed plots", "allInRect", "index", rounds,
+                () -> buildableRegion(grid, 16), () -> buildableIndex(grid, 16));
+        if (sink == 42)
+            System.out.println();
+    }
+
+    private static void compare(String name, int rounds, Runnable cells, Runnable region) {
+        compare(name, "cellAt", "region", rounds, cells, region);
+    }
+
+    /* Time both ways and output the best times. */
+    private static void compare(String name, String oldName, String newName, int rounds,
+                                Runnable old, Runnable replacement) {
+        long oldNanos = Long.MAX_VALUE;
+        long newNanos = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            oldNanos = Math.min(oldNanos, time(old));
+            newNanos = Math.min(newNanos, time(replacement));
+        }
+        System.out.printf("%s: %s %.1f ms, %s %.1f ms (%.1fx)%n", name, oldName,
+                oldNanos / 1e6, newName, newNanos / 1e6, (double) oldNanos / newNanos);
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return System.nanoTime() - start;
+    }
+
+    private static void scanCells(Grid grid) {
+        int count = 0;
+        for (int x = 0; x < grid.getWidth(); x++) {
+            for (int y = 0; y < grid.getHeight(); y++) {
+                if (grid.cellAt(x, y).getCellType() == CellType.WOODS)
+                    count++;
+            }
+        }
+        sink += count;
+    }
+
+    private static void scanRegion(Grid grid) {
+        int[] count = new int[1];
+        grid.forEachInRect(new GridRectangle(0, 0, grid.getWidth(), grid.getHeight()),
+                (x, y, cell) -> {
+                    if (cell.getCellType() == CellType.WOODS)
+                        count[0]++;
+                });
+        sink += count[0];
+    }
+
+    /* The test of Cs345Opolis.isBuildable before the region methods. */
+    private static void buildableCells(Grid grid) {
+        int count = 0;
+        for (int top = 0; top + 3 <= grid.getHeight(); top++) {
+            for (int left = 0; left + 3 <= grid.getWidth(); left++) {
+                boolean buildable = true;
+                for (int x = left; x < left + 3 && buildable; x++) {
+                    for (int y = top; y < top + 3; y++) {
+                        if (!grid.cellAt(x, y).isBuildable()) {
+                            buildable = false;
+                            break;
+                        }
+                    }
+                }
+                if (buildable)
+                    count++;
+            }
+        }
+        sink += count;
+    }
+
+    private static void buildableRegion(Grid grid, int side) {
+        int count = 0;
+        for (int top = 0; top + side <= grid.getHeight(); top++) {
+            for (int left = 0; left + side <= grid.getWidth(); left++) {
+                if (grid.allInRect(new GridRectangle(left, top, side, side), Cell::isBuildable))
+                    count++;
+            }
+        }
+        sink += count;
+    }
+
+    private static void buildableIndex(Grid grid, int side) {
+        int count = 0;
+        for (int top = 0; top + side <= grid.getHeight(); top++) {
+            for (int left = 0; left + side <= grid.getWidth(); left++) {
+                if (grid.allBuildable(new GridRectangle(left, top, side, side)))
+                    count++;
+            }
+        }
+        sink += count;
+    }
+
+    private static void sitesIndex(Grid grid) {
+        List<GridLocation> sites = new ArrayList<>();
+        for (int y = 1; y + 1 < grid.getHeight(); y++) {
+            for (int x = 1; x + 1 < grid.getWidth(); x++) {
+                if (grid.allBuildable(new GridRectangle(x - 1, y - 1, 3, 3)))
+                    sites.add(new GridLocation(x, y));
+            }
+        }
+        sink += sites.size();
+    }
+
+    private static void sites(Grid grid) {
+        sink += grid.findBuildableSites(
+                new GridRectangle(0, 0, grid.getWidth(), grid.getHeight()), 0).size();
+    }
+
+    private static void rowsCells(Grid grid) {
+        int count = 0;
+        for (int y = 0; y < grid.getHeight(); y++) {
+            for (int x = 0; x < grid.getWidth(); x++) {
+                count += grid.cellAt(x, y).getCellType().ordinal();
+            }
+        }
+        sink += count;
+    }
+
+    private static void rowsSpan(Grid grid) {
+        int count = 0;
+        Cell[] row = new Cell[grid.getWidth()];
+        for (int y = 0; y < grid.getHeight(); y++) {
+            grid.getRowSpan(0, y, row.length, row, 0);
+            for (Cell cell : row) {
+                count += cell.getCellType().ordinal();
+            }
+        }
+        sink += count;
+    }
+}
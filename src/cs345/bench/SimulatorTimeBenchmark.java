@@ -0,0 +1,198 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.bench;
+
+import cs345.model.SimulatorTime;
+import cs345.model.SimulatorTime.Month;
+import cs345.model.SimulatorTime.TimeData;
+
+/**
+ * Compare SimulatorTime with the representation it replaced, an epoch
+ * TimeData and an offset, which is kept here as LegacyTime.
+ *
+ * Each case does the same work on the times of a run of steps in both
+ * representations:
+ *
+ *   - calendar: create a time and get its TimeData
+ *   - calendar again: get the TimeData of an existing time
+ *   - diff: the difference between two times
+ *   - equals: compare two times
+ *   - nextStep: the next occurrence of a step in a period after a time
+ *
+ * Each case is timed several times and the best time is reported, so the
+ * first rounds warm up the JIT.
+ *
+ * Usage: SimulatorTimeBenchmark [steps [rounds]], by default 1000000 steps
+ * and 10 rounds.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class SimulatorTimeBenchmark {
+
+    private static final TimeData EPOCH = new TimeData(1900, Month.JAN, 0);
+
+    /* Keeps the results of each case live, so they are not optimized away. */
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        LegacyTime[] legacy = new LegacyTime[steps];
+        SimulatorTime[] packed = new SimulatorTime[steps];
+        SimulatorTime start = SimulatorTime.getAbsoluteTime(EPOCH, 0);
+        for (int i = 0; i < steps; i++) {
+            legacy[i] = new LegacyTime(EPOCH, i);
+            packed[i] = start.plusSteps(i);
+        }
+
+        System.out.printf("%d steps, best of %d rounds%n", steps, rounds);
+        compare("calendar", rounds, () -> legacyCalendar(steps), () -> packedCalendar(steps));
+        compare("calendar again", rounds, () -> calendar(legacy), () -> calendar(packed));
+        compare("diff", rounds, () -> diff(legacy), () -> diff(packed));
+        compare("equals", rounds, () -> equals(legacy), () -> equals(packed));
+        compare("nextStep", rounds, () -> nextStep(legacy), () -> nextStep(packed));
+        if (sink == 42)
+            System.out.println();
+    }
+
+    /* Time both representations and output the best times. */
+    private static void compare(String name, int rounds, Runnable legacy, Runnable packed) {
+        long legacyNanos = Long.MAX_VALUE;
+        long packedNanos = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            legacyNanos = Math.min(legacyNanos, time(legacy));
+            packedNanos = Math.min(packedNanos, time(packed));
+        }
+        System.out.printf("%s: legacy %.1f ms, packed %.1f ms (%.1fx)%n", name,
+                legacyNanos / 1e6, packedNanos / 1e6, (double) legacyNanos / packedNanos);
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return System.nanoTime() - start;
+    }
+
+    /* Create each time and get its calendar date, as getCurrentTime does. */
+    private static void legacyCalendar(int steps) {
+        for (int i = 0; i < steps; i++) {
+            TimeData data = new LegacyTime(EPOCH, i).getTimeData();
+            sink += data.week + data.month.ordinal();
+        }
+    }
+
+    private static void packedCalendar(int steps) {
+        SimulatorTime start = SimulatorTime.getAbsoluteTime(EPOCH, 0);
+        for (int i = 0; i < steps; i++) {
+            TimeData data = start.plusSteps(i).getTimeData();
+            sink += data.week + data.month.ordinal();
+        }
+    }
+
+    private static void calendar(LegacyTime[] times) {
+        for (LegacyTime time : times) {
+            TimeData data = time.getTimeData();
+            sink += data.week + data.month.ordinal();
+        }
+    }
+
+    private static void calendar(SimulatorTime[] times) {
+        for (SimulatorTime time : times) {
+            TimeData data = time.getTimeData();
+            sink += data.week + data.month.ordinal();
+        }
+    }
+
+    /* Each time against the one half way along, as the action queue does
+     * with action times and the current time. */
+    private static void diff(LegacyTime[] times) {
+        LegacyTime middle = new LegacyTime(EPOCH, times.length / 2);
+        for (LegacyTime time : times) {
+            sink += time.diff(middle);
+        }
+    }
+
+    private static void diff(SimulatorTime[] times) {
+        SimulatorTime middle = SimulatorTime.getAbsoluteTime(EPOCH, times.length / 2);
+        for (SimulatorTime time : times) {
+            sink += time.diff(middle);
+        }
+    }
+
+    private static void equals(LegacyTime[] times) {
+        for (int i = 1; i < times.length; i++) {
+            if (times[i].equals(times[i - 1]))
+                sink++;
+        }
+    }
+
+    private static void equals(SimulatorTime[] times) {
+        for (int i = 1; i < times.length; i++) {
+            if (times[i].equals(times[i - 1]))
+                sink++;
+        }
+    }
+
+    private static void nextStep(LegacyTime[] times) {
+        for (LegacyTime time : times) {
+            sink += time.nextStep(1, SimulatorTime.STEPS_PER_PERIOD).hashCode();
+        }
+    }
+
+    private static void nextStep(SimulatorTime[] times) {
+        for (SimulatorTime time : times) {
+            sink += time.nextStep(1, SimulatorTime.STEPS_PER_PERIOD).hashCode();
+        }
+    }
+
+    /**
+     * The former SimulatorTime: an epoch and an offset, with the calendar
+     * date computed from the epoch's components on each call.
+     */
+    private static class LegacyTime {
+        final TimeData epoch;
+        final int offset;
+
+        LegacyTime(TimeData epoch, int offset) {
+            this.epoch = epoch;
+            this.offset = offset;
+        }
+
+        @Override public boolean equals(Object other) {
+            return other instanceof LegacyTime && diff((LegacyTime) other) == 0;
+        }
+
+        @Override public int hashCode() {
+            return epoch.hashCode() * 31 + offset;
+        }
+
+        int diff(LegacyTime other) {
+            return this.epoch.diff(other.epoch) + this.offset - other.offset;
+        }
+
+        LegacyTime nextStep(int stepNumber, int modulus) {
+            stepNumber = stepNumber % modulus;
+            int curModulus = offset % modulus;
+            int next = offset + stepNumber - curModulus;
+            if (curModulus >= stepNumber)
+                next += modulus;
+            return new LegacyTime(epoch, next);
+        }
+
+        TimeData getTimeData() {
+            int totalStep = epoch.step + offset;
+            int step = totalStep % SimulatorTime.STEPS_PER_PERIOD;
+            int totalWeek = epoch.week + totalStep / SimulatorTime.STEPS_PER_PERIOD;
+            int week = totalWeek % SimulatorTime.WEEKS_PER_MONTH;
+            int totalMonth = epoch.month.ordinal() + totalWeek / SimulatorTime.WEEKS_PER_MONTH;
+            Month month = Month.values()[totalMonth % SimulatorTime.MONTHS_PER_YEAR];
+            int year = epoch.year + totalMonth / SimulatorTime.MONTHS_PER_YEAR;
+            return new TimeData(year, month, week, step);
+        }
+    }
+}
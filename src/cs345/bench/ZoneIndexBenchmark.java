@@ -0,0 +1,161 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.bench;
+
+import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
+import cs345.model.GridLocation;
+import cs345.model.GridRectangle;
+import cs345.model.cell.Residential;
+import cs345.model.cell.ResidentialSystem;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compare the zone queries of ResidentialSystem, which use its ZoneIndex,
+ * with finding the zones from the grid.
+ *
+ * A city of residential zones, every other 3 by 3 block of a grid, is
+ * queried with random locations:
+ *
+ *   - zones in: the zones whose centers are in a 32 by 32 rectangle, by
+ *     reading the cells of the rectangle and removing the duplicate cells
+ *     of each zone, or with zonesIn
+ *   - count: the number of zones in a 256 by 256 rectangle, the same way,
+ *     or with countZonesIn
+ *   - nearest: the zone nearest a location, by visiting every zone with
+ *     forEachZone, or with nearestZone
+ *
+ * Each case is timed several times and the best time is reported, so the
+ * first rounds warm up the JIT.
+ *
+ * Usage: ZoneIndexBenchmark [size [queries [rounds]]], by default a 1000 by
+ * 1000 grid, 1000 queries and 10 rounds.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class ZoneIndexBenchmark {
+
+    /* Keeps the results of each case live, so they are not optimized away. */
+    private static long sink = 0;
+
+    public static void main(String[] args) {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        Properties props = new Properties();
+        props.setProperty(Cs345Opolis.GRID_WIDTH, Integer.toString(size));
+        props.setProperty(Cs345Opolis.GRID_HEIGHT, Integer.toString(size));
+        Cs345Opolis game = Cs345Opolis.newCity(props);
+        for (int y = 1; y + 1 < size; y += 6) {
+            for (int x = 1; x + 1 < size; x += 6) {
+                new Residential(game, new GridLocation(x, y));
+            }
+        }
+
+        Random random = new Random(345);
+        GridLocation[] locations = new GridLocation[queries];
+        for (int i = 0; i < queries; i++) {
+            locations[i] = new GridLocation(random.nextInt(size), random.nextInt(size));
+        }
+
+        System.out.printf("%d x %d grid, %d zones, %d queries, best of %d rounds%n", size, size,
+                game.getResidentialSystem().getZoneCount(), queries, rounds);
+        compare("zones in", rounds, () -> zonesInGrid(game, locations, 32),
+                () -> zonesInIndex(game, locations, 32));
+        compare("count", rounds, () -> zonesInGrid(game, locations, 256),
+                () -> countIndex(game, locations, 256));
+        compare("nearest", rounds, () -> nearestScan(game, locations),
+                () -> nearestIndex(game, locations));
+        if (sink == 42)
+            System.out.println();
+    }
+
+    /* Time both ways and output the best times. */
+    private static void compare(String name, int rounds, Runnable grid, Runnable index) {
+        long gridNanos = Long.MAX_VALUE;
+        long indexNanos = Long.MAX_VALUE;
+        for (int round = 0; round < rounds; round++) {
+            gridNanos = Math.min(gridNanos, time(grid));
+            indexNanos = Math.min(indexNanos, time(index));
+        }
+        System.out.printf("%s: grid %.1f ms, index %.1f ms (%.1fx)%n", name,
+                gridNanos / 1e6, indexNanos / 1e6, (double) gridNanos / indexNanos);
+    }
+
+    private static long time(Runnable task) {
+        long start = System.nanoTime();
+        task.run();
+        return System.nanoTime() - start;
+    }
+
+    /* The part of the rectangle of the given size at the location that is
+     * inside the grid. */
+    private static GridRectangle clip(Grid grid, GridLocation loc, int side) {
+        return new GridRectangle(loc.x, loc.y,
+                Math.min(side, grid.getWidth() - loc.x), Math.min(side, grid.getHeight() - loc.y));
+    }
+
+    private static void zonesInGrid(Cs345Opolis game, GridLocation[] locations, int side) {
+        Grid grid = game.getGrid();
+        for (GridLocation loc : locations) {
+            GridRectangle rect = clip(grid, loc, side);
+            Set<Residential> found = Collections.newSetFromMap(new IdentityHashMap<>());
+            grid.forEachInRect(rect, (x, y, cell) -> {
+                if (cell instanceof Residential && contains(rect, ((Residential) cell).getCenter()))
+                    found.add((Residential) cell);
+            });
+            sink += found.size();
+        }
+    }
+
+    private static void zonesInIndex(Cs345Opolis game, GridLocation[] locations, int side) {
+        ResidentialSystem residents = game.getResidentialSystem();
+        for (GridLocation loc : locations) {
+            sink += residents.zonesIn(clip(game.getGrid(), loc, side)).size();
+        }
+    }
+
+    private static void countIndex(Cs345Opolis game, GridLocation[] locations, int side) {
+        ResidentialSystem residents = game.getResidentialSystem();
+        for (GridLocation loc : locations) {
+            sink += residents.countZonesIn(clip(game.getGrid(), loc, side));
+        }
+    }
+
+    private static void nearestScan(Cs345Opolis game, GridLocation[] locations) {
+        for (GridLocation loc : locations) {
+            long[] best = {Long.MAX_VALUE};
+            game.getResidentialSystem().forEachZone((x, y, pop, prng, atStep, sequence) -> {
+                long dx = x - loc.x;
+                long dy = y - loc.y;
+                best[0] = Math.min(best[0], dx * dx + dy * dy);
+            });
+            sink += best[0];
+        }
+    }
+
+    private static void nearestIndex(Cs345Opolis game, GridLocation[] locations) {
+        ResidentialSystem residents = game.getResidentialSystem();
+        for (GridLocation loc : locations) {
+            GridLocation center = residents.nearestZone(loc).getCenter();
+            long dx = center.x - loc.x;
+            long dy = center.y - loc.y;
+            sink += dx * dx + dy * dy;
+        }
+    }
+
+    private static boolean contains(GridRectangle rect, GridLocation loc) {
+        return rect.x <= loc.x && loc.x < rect.x + rect.w
+                && rect.y <= loc.y && loc.y < rect.y + rect.h;
+    }
+}
@@ -0,0 +1,32 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+/**
+ * A handle for an action that has been scheduled with a Simulator.
+ *
+ * A handle is returned when an action is added to the simulator. Passing the
+ * handle to Simulator.cancelAction removes the action from the simulation in
+ * constant time, without searching the simulator's queue.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public interface ActionHandle {
+
+    /**
+     * Return the action for this handle.
+     * @return the action
+     */
+    SimulatorAction getAction();
+
+    /**
+     * Return true if the action is still scheduled, that is, it has not been
+     * cancelled or removed and it has not finished.
+     * @return true if the action is scheduled
+     */
+    boolean isScheduled();
+}
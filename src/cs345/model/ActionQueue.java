@@ -0,0 +1,84 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.function.Consumer;
+
+/**
+ * The queue of scheduled actions used by the Simulator.
+ *
+ * Entries are ordered by the step at which they are due and, within a step,
+ * by their phase and then their sequence number. The queue keeps track of the
+ * current step of the simulator. Entries due at or before the current step
+ * are returned by poll.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+interface ActionQueue {
+
+    /**
+     * Add an entry to the queue.
+     * @param entry the entry to add
+     */
+    void add(Simulator.QEntry entry);
+
+    /**
+     * Remove and return the first entry that is due at or before the
+     * current step.
+     * @return the entry, or null if no entries are due
+     */
+    Simulator.QEntry poll();
+
+    /**
+     * Return the entry that would be returned by poll without removing it.
+     * @return the entry, or null if no entries are due
+     */
+    Simulator.QEntry peek();
+
+    /**
+     * Return the step of the first entry in the queue. If the value is at or
+     * before the current step, there is an entry that is due now.
+     * @return the step of the first entry, or Integer.MAX_VALUE if the queue
+     *      is empty
+     */
+    int nextStep();
+
+    /**
+     * Remove one entry for the given action from the queue. Entries that
+     * have been cancelled are ignored.
+     * @param action the action to be removed
+     * @return the removed entry, or null if there was no entry for the action
+     */
+    Simulator.QEntry remove(SimulatorAction action);
+
+    /**
+     * Remove the given entry from the queue. The entry must be in the queue
+     * and must already be marked as cancelled.
+     * @param entry the entry to be removed
+     */
+    void cancel(Simulator.QEntry entry);
+
+    /**
+     * Move the current step of the queue forward. All entries due before
+     * the new step must already have been polled.
+     * @param step the new current step
+     */
+    void advanceTo(int step);
+
+    /**
+     * Call the consumer for each entry in the queue, in no particular order.
+     * Cancelled entries are skipped.
+     * @param consumer the consumer
+     */
+    void forEach(Consumer<Simulator.QEntry> consumer);
+
+    /**
+     * Return the number of entries in the queue.
+     * @return the size of the queue
+     */
+    int size();
+}
@@ -55,14 +55,19 @@ public interface Cell {
     }
 
     /**
-     * Bulldoze the cell.
+     * Bulldoze the cell in the given game.
      *
      * This method provides an opportunity for any cleanup required when the
-     * cell is being bulldozed. The default implementation throws an
+     * cell is being bulldozed. A cell that keeps state in the game, as a
+     * residential zone does, removes it from the game, so a cell is always
+     * bulldozed in a game. The cell may be shared by forks of the game (see
+     * Cs345Opolis.fork). The default implementation throws an
      * UnsupportedOperationException on the assumption that the cell cannot
-     * be bulldozed.
+     * be bulldozed (see isBulldozeable).
+     *
+     * @param game the game the cell is bulldozed in
      */
-    default void bulldoze() {
+    default void bulldoze(Cs345Opolis game) {
         throw new UnsupportedOperationException("Illegal bulldoze operation");
     }
 }
@@ -0,0 +1,129 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import cs345.model.cell.CellType;
+import cs345.model.cell.Dirt;
+import cs345.model.cell.River;
+import cs345.model.cell.Woods;
+
+import java.util.Arrays;
+
+/**
+ * GridStorage that keeps a reference to the Cell object of each cell.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class CellPages implements GridStorage {
+
+    /* The flyweight page for null cells, used before a page is filled. */
+    private static final Cell[] EMPTY = new Cell[PAGE_SIZE];
+
+    /* The flyweight pages of the shared cells, by CellType ordinal. null for
+     * other types. */
+    private static final Cell[][] UNIFORM = uniformPages();
+
+    private final Cell[][] pages;
+    private final boolean[] shared; // true if a page may be used by another storage
+
+    /**
+     * Create storage for the given number of cells, all null.
+     * @param size the number of cells
+     */
+    CellPages(long size) {
+        int pageCount = (int) ((size + PAGE_MASK) >>> PAGE_SHIFT);
+        this.pages = new Cell[pageCount][];
+        this.shared = new boolean[pageCount];
+        Arrays.fill(pages, EMPTY);
+        Arrays.fill(shared, true);
+    }
+
+    /* Construct a fork, sharing all the pages of the original. */
+    private CellPages(CellPages original) {
+        this.pages = original.pages.clone();
+        this.shared = original.shared.clone();
+    }
+
+    private static Cell[][] uniformPages() {
+        Cell[][] result = new Cell[CellType.values().length][];
+        for (Cell cell : new Cell[] { Dirt.DIRT, Woods.WOODS, River.RIVER }) {
+            Cell[] page = new Cell[PAGE_SIZE];
+            Arrays.fill(page, cell);
+            result[cell.getCellType().ordinal()] = page;
+        }
+        return result;
+    }
+
+    /* Return the flyweight page of a cell, or null if it has none. */
+    private static Cell[] uniformPage(Cell cell) {
+        Cell[] page = UNIFORM[cell.getCellType().ordinal()];
+        return page != null && page[0] == cell ? page : null;
+    }
+
+    @Override public Cell get(long index) {
+        return pages[(int) (index >>> PAGE_SHIFT)][(int) index & PAGE_MASK];
+    }
+
+    @Override public void getRange(long start, Cell[] dest, int offset, int length) {
+        System.arraycopy(pages[(int) (start >>> PAGE_SHIFT)], (int) start & PAGE_MASK,
+                dest, offset, length);
+    }
+
+    @Override public void set(long index, Cell cell) {
+        writablePage((int) (index >>> PAGE_SHIFT))[(int) index & PAGE_MASK] = cell;
+    }
+
+    @Override public void fill(long start, long length, Cell cell) {
+        long end = start + length;
+        while (start < end) {
+            int page = (int) (start >>> PAGE_SHIFT);
+            long pageEnd = Math.min(end, (long) (page + 1) << PAGE_SHIFT);
+            if (pageEnd - start == PAGE_SIZE && uniformPage(cell) != null) {
+                pages[page] = uniformPage(cell);
+                shared[page] = true;
+                start = pageEnd;
+                continue;
+            }
+            Arrays.fill(writablePage(page), (int) start & PAGE_MASK,
+                    ((int) (pageEnd - 1) & PAGE_MASK) + 1, cell);
+            start = pageEnd;
+        }
+    }
+
+    @Override public void compact() {
+        for (int page = 0; page < pages.length; page++) {
+            Cell first = pages[page][0];
+            Cell[] uniform = shared[page] || first == null ? null : uniformPage(first);
+            if (uniform != null && isAll(pages[page], uniform[0])) {
+                pages[page] = uniform;
+                shared[page] = true;
+            }
+        }
+    }
+
+    private static boolean isAll(Cell[] page, Cell cell) {
+        for (Cell other : page) {
+            if (other != cell)
+                return false;
+        }
+        return true;
+    }
+
+    @Override public GridStorage fork() {
+        Arrays.fill(shared, true);
+        return new CellPages(this);
+    }
+
+    /* Return the page, first copying it if it is shared. */
+    private Cell[] writablePage(int page) {
+        if (shared[page]) {
+            pages[page] = pages[page].clone();
+            shared[page] = false;
+        }
+        return pages[page];
+    }
+}
@@ -0,0 +1,115 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import cs345.model.cell.CellType;
+
+import java.util.Arrays;
+
+/**
+ * Counts of the cells of a grid: the cells of each CellType and the cells
+ * that are buildable.
+ *
+ * The counts of a grid (see Grid.cityStats) are kept up to date as cells
+ * are set, so reading them takes constant time however large the grid is.
+ * Every zone is a 3x3 block of cells of its type, so the number of zones
+ * is also known from the counts.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public final class CityStats {
+
+    /* The number of cells in a zone. */
+    private static final int ZONE_CELLS = 9;
+
+    private final long[] byType = new long[CellType.values().length];
+    private long buildable = 0;
+
+    CityStats() { }
+
+    /* Construct a copy of the counts. */
+    private CityStats(CityStats original) {
+        System.arraycopy(original.byType, 0, byType, 0, byType.length);
+        buildable = original.buildable;
+    }
+
+    /**
+     * Return a copy of the counts, which does not change as the grid does.
+     * @return the copy
+     */
+    public CityStats copy() {
+        return new CityStats(this);
+    }
+
+    /**
+     * Return the number of cells of a type.
+     * @param type the cell type
+     * @return the number of cells
+     */
+    public long getCells(CellType type) {
+        return byType[type.ordinal()];
+    }
+
+    /**
+     * Return the number of buildable cells (see Cell.isBuildable).
+     * @return the number of cells
+     */
+    public long getBuildableCells() {
+        return buildable;
+    }
+
+    /**
+     * Return the number of cells of the grid.
+     * @return the number of cells
+     */
+    public long getTotalCells() {
+        long total = 0;
+        for (long count : byType) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Return the number of residential zones.
+     * @return the number of zones
+     */
+    public long getResidentialZones() {
+        return getCells(CellType.RESIDENTIAL) / ZONE_CELLS;
+    }
+
+    /**
+     * Count cells that have been added to the grid.
+     * @param cell the cell
+     * @param count the number of cells
+     */
+    void add(Cell cell, long count) {
+        byType[cell.getCellType().ordinal()] += count;
+        if (cell.isBuildable())
+            buildable += count;
+    }
+
+    /**
+     * Stop counting cells that have been removed from the grid.
+     * @param cell the cell
+     * @param count the number of cells
+     */
+    void remove(Cell cell, long count) {
+        add(cell, -count);
+    }
+
+    /**
+     * Reset the counts to a grid of one cell.
+     * @param cell the cell
+     * @param count the number of cells of the grid
+     */
+    void reset(Cell cell, long count) {
+        Arrays.fill(byType, 0);
+        buildable = 0;
+        add(cell, count);
+    }
+}
@@ -0,0 +1,325 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import cs345.model.cell.CellType;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * The connected regions of water (RIVER cells) and land (all other cells)
+ * of a grid, kept in a union-find structure.
+ *
+ * Two cells are connected if they are both water, or both land, and there
+ * is a path between them of cells of the same kind, each next to the one
+ * before it horizontally or vertically. Each region of connected cells is
+ * a component, and the queries (componentOf, componentSize, connected) find
+ * the root of a cell's component, which takes amortized time O(alpha(n)).
+ *
+ * The index is built from the grid in strips of rows, which are labeled in
+ * parallel and then joined along the rows where they meet. It is a
+ * GridListener of the grid, and a query made after the grid has changed
+ * first takes the changes with Grid.publishChangesTo, which leaves them to
+ * be published to the other listeners at the end of the step. The index is
+ * given those changes again then, and skips them if the grid has not
+ * changed since it took them. A cell that changes kind is given a new node, joined to its new
+ * neighbors, and removed from the size of its old component. Removing a
+ * cell can split its old component, which union-find cannot do, so when
+ * the old neighbors of the cell are not connected around it the index is
+ * built again at the next query. Zoning and bulldozing only change land to
+ * land, so after a map is generated this is rare.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public final class ComponentIndex implements GridListener {
+
+    /* A strip of 64 rows is a multiple of 64 cells, so the strips do not
+     * share any words of the water bits. */
+    private static final int STRIP_HEIGHT = 64;
+
+    /* The cells around a cell, in order around it, starting above. The
+     * cells at even positions are next to the cell horizontally or
+     * vertically. */
+    private static final int[] RING_X = { 0, 1, 1, 1, 0, -1, -1, -1 };
+    private static final int[] RING_Y = { -1, -1, 0, 1, 1, 1, 0, -1 };
+
+    private final Grid grid;
+    private final int width;
+    private final int height;
+
+    private long[] water; // A bit for each cell, in row order, set if it is water
+    private int[] node; // The union-find node of each cell
+    private int[] parent; // The parent of each node
+    private int[] size; // The number of cells in the component, for roots
+    private int nodeCount;
+    private boolean stale = false; // True if the index must be built again
+    private long version; // The version of the grid the index is up to date with
+
+    /**
+     * Build the index of a grid and register it as a listener of the grid.
+     * @param grid the grid
+     * @throws UnsupportedOperationException if the grid has more than
+     *      Integer.MAX_VALUE / 2 cells
+     */
+    ComponentIndex(Grid grid) {
+        this.grid = grid;
+        this.width = grid.getWidth();
+        this.height = grid.getHeight();
+        if ((long) width * height > Integer.MAX_VALUE / 2)
+            throw new UnsupportedOperationException("Grid is too large for a component index");
+        build();
+        grid.addListener(this);
+    }
+
+    /**
+     * Return true if the cell is water.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return true if the cell is a RIVER cell
+     * @throws IndexOutOfBoundsException if the coordinates are not valid
+     */
+    public boolean isWater(int x, int y) {
+        int cell = cellIndex(x, y);
+        update();
+        return isWater(cell);
+    }
+
+    /**
+     * Return the id of the component holding a cell. Two cells are
+     * connected if they have the same id. The id of a component may change
+     * whenever the grid changes.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the id
+     * @throws IndexOutOfBoundsException if the coordinates are not valid
+     */
+    public int componentOf(int x, int y) {
+        int cell = cellIndex(x, y);
+        update();
+        return find(node[cell]);
+    }
+
+    /**
+     * Return the number of cells in the component holding a cell, such as
+     * the size of a landmass or of a lake.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the number of cells
+     * @throws IndexOutOfBoundsException if the coordinates are not valid
+     */
+    public int componentSize(int x, int y) {
+        // componentOf may replace the size array
+        int root = componentOf(x, y);
+        return size[root];
+    }
+
+    /**
+     * Return true if two cells are in the same component.
+     * @param loc1 the first cell
+     * @param loc2 the second cell
+     * @return true if the cells are connected
+     * @throws IndexOutOfBoundsException if either location is not valid
+     */
+    public boolean connected(GridLocation loc1, GridLocation loc2) {
+        int cell1 = cellIndex(loc1.x, loc1.y);
+        int cell2 = cellIndex(loc2.x, loc2.y);
+        update();
+        return find(node[cell1]) == find(node[cell2]);
+    }
+
+    /**
+     * Take the changes to the grid.
+     * @param grid the grid
+     * @param dirty the rectangles that have changed
+     */
+    @Override
+    public void gridChanged(Grid grid, List<GridRectangle> dirty) {
+        if (stale || version == grid.getVersion())
+            return;
+        version = grid.getVersion();
+        Cell[] row = new Cell[width];
+        for (GridRectangle rect : dirty) {
+            for (int y = rect.y; y < rect.y + rect.h; y++) {
+                grid.getRowSpan(rect.x, y, rect.w, row, 0);
+                for (int i = 0; i < rect.w; i++) {
+                    int cell = y * width + rect.x + i;
+                    if (isWaterCell(row[i]) != isWater(cell)) {
+                        change(rect.x + i, y);
+                        if (stale)
+                            return;
+                    }
+                }
+            }
+        }
+    }
+
+    /* Bring the index up to date with the grid. */
+    private void update() {
+        if (version != grid.getVersion())
+            grid.publishChangesTo(this);
+        if (stale) {
+            build();
+            stale = false;
+        }
+    }
+
+    /* Label the whole grid. Each strip of rows is joined within itself in
+     * parallel; its nodes are the indexes of its cells, so the strips do not
+     * share any nodes. Then the strips are joined where they meet. */
+    private void build() {
+        version = grid.getVersion();
+        int cells = width * height;
+        water = new long[(cells + 63) >>> 6];
+        node = new int[cells];
+        parent = new int[cells];
+        size = new int[cells];
+        nodeCount = cells;
+        int strips = (height + STRIP_HEIGHT - 1) / STRIP_HEIGHT;
+        IntStream.range(0, strips).parallel().forEach(this::buildStrip);
+        for (int y = STRIP_HEIGHT; y < height; y += STRIP_HEIGHT) {
+            for (int x = 0; x < width; x++) {
+                int cell = y * width + x;
+                if (isWater(cell) == isWater(cell - width))
+                    union(cell, cell - width);
+            }
+        }
+    }
+
+    private void buildStrip(int strip) {
+        int top = strip * STRIP_HEIGHT;
+        int bottom = Math.min(height, top + STRIP_HEIGHT);
+        Cell[] row = new Cell[width];
+        for (int y = top; y < bottom; y++) {
+            grid.getRowSpan(0, y, width, row, 0);
+            for (int x = 0; x < width; x++) {
+                int cell = y * width + x;
+                node[cell] = cell;
+                parent[cell] = cell;
+                size[cell] = 1;
+                if (isWaterCell(row[x]))
+                    water[cell >>> 6] |= 1L << cell;
+                if (x > 0 && isWater(cell) == isWater(cell - 1))
+                    union(cell, cell - 1);
+                if (y > top && isWater(cell) == isWater(cell - width))
+                    union(cell, cell - width);
+            }
+        }
+    }
+
+    /* Change the kind of the cell at x, y. */
+    private void change(int x, int y) {
+        int cell = y * width + x;
+        boolean toWater = !isWater(cell);
+        if (splits(x, y, !toWater)) {
+            stale = true;
+            return;
+        }
+        if (nodeCount == parent.length) {
+            if (nodeCount >= 2 * node.length) {
+                // Too many nodes of cells that have changed
+                stale = true;
+                return;
+            }
+            parent = Arrays.copyOf(parent, 2 * nodeCount);
+            size = Arrays.copyOf(size, 2 * nodeCount);
+        }
+        size[find(node[cell])]--;
+        int fresh = nodeCount++;
+        parent[fresh] = fresh;
+        size[fresh] = 1;
+        node[cell] = fresh;
+        water[cell >>> 6] ^= 1L << cell;
+        for (int i = 0; i < RING_X.length; i += 2) {
+            int nx = x + RING_X[i];
+            int ny = y + RING_Y[i];
+            if (grid.validCoords(nx, ny) && isWater(ny * width + nx) == toWater)
+                union(node[cell], node[ny * width + nx]);
+        }
+    }
+
+    /* Return true if removing the cell at x, y from its component might
+     * split the component: the neighbors of the same kind, above, below, to
+     * the left and to the right, are not all in one run of same kind cells
+     * around the cell. */
+    private boolean splits(int x, int y, boolean kind) {
+        boolean[] same = new boolean[RING_X.length];
+        int neighbors = 0;
+        for (int i = 0; i < same.length; i++) {
+            int nx = x + RING_X[i];
+            int ny = y + RING_Y[i];
+            same[i] = grid.validCoords(nx, ny) && isWater(ny * width + nx) == kind;
+            if (same[i] && i % 2 == 0)
+                neighbors++;
+        }
+        if (neighbors <= 1)
+            return false;
+        int start = -1;
+        for (int i = 0; i < same.length; i++) {
+            if (!same[i])
+                start = i;
+        }
+        if (start < 0)
+            return false;
+        // Count the runs around the cell, from a cell of the other kind,
+        // that hold a neighbor
+        int runs = 0;
+        boolean inRun = false;
+        boolean hasNeighbor = false;
+        for (int k = 1; k <= same.length; k++) {
+            int i = (start + k) % same.length;
+            if (same[i]) {
+                inRun = true;
+                hasNeighbor |= i % 2 == 0;
+            } else if (inRun) {
+                if (hasNeighbor)
+                    runs++;
+                inRun = false;
+                hasNeighbor = false;
+            }
+        }
+        return runs > 1;
+    }
+
+    private int find(int n) {
+        while (parent[n] != n) {
+            parent[n] = parent[parent[n]];
+            n = parent[n];
+        }
+        return n;
+    }
+
+    private void union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b)
+            return;
+        if (size[a] < size[b]) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+        parent[b] = a;
+        size[a] += size[b];
+    }
+
+    private boolean isWater(int cell) {
+        return (water[cell >>> 6] & 1L << cell) != 0;
+    }
+
+    private static boolean isWaterCell(Cell cell) {
+        return cell.getCellType() == CellType.RIVER;
+    }
+
+    private int cellIndex(int x, int y) {
+        if (!grid.validCoords(x, y))
+            throw new IndexOutOfBoundsException(
+                    String.format("(%d, %d) is not a valid grid coordinate", x, y));
+        return y * width + x;
+    }
+}
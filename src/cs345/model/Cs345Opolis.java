@@ -8,9 +8,16 @@ package cs345.model;
 
 import cs345.model.cell.CellConstants;
 import cs345.model.cell.Dirt;
+import cs345.model.cell.ResidentialSystem;
 
+import java.io.*;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
 
 /**
  * Model for the CS345Opolis game.
@@ -46,6 +53,19 @@ public class Cs345Opolis {
 
     private Random prng;
 
+    // The state and updates of the residential zones
+    private ResidentialSystem residents;
+
+    // Used instead of newResPop when actions may run in parallel. null if
+    // actions are run sequentially.
+    private LongAdder resPopAdder = null;
+
+    // The digests of the tiles of digestGrid, with the version of each tile
+    // when its digest was taken (see stateDigest)
+    private Grid digestGrid = null;
+    private long[] tileDigests;
+    private int[] tileDigestVersions;
+
     /**
      * Factory function for constructing a new game.
      *
@@ -81,32 +101,132 @@ public class Cs345Opolis {
 
         newGrid();
         newSimulator();
-        // Simulator always initializes with stepOffset == 0
-        sim.addAction(sim.getCurrentTime(), new PeriodInitAction());
-        sim.addAction(sim.getCurrentTime().nextStep(SimulatorTime.STEPS_PER_PERIOD - 1),
+        sim.setStepEnd(this::publishGridChanges);
+        residents = new ResidentialSystem(this);
+        if (sim.getThreads() > 0) {
+            resPopAdder = new LongAdder();
+        }
+        // Simulator always initializes with step zero
+        sim.addActionAt(0, Simulator.Phase.PRE_PERIOD, new PeriodInitAction());
+        sim.addActionAt(SimulatorTime.STEPS_PER_PERIOD - 1, Simulator.Phase.POST_PERIOD,
                 new PeriodEndAction());
     }
 
+    /* Construct a fork of a game, see fork. */
+    private Cs345Opolis(Cs345Opolis original) {
+        props = original.props;
+        prng = copyRandoms(new Random[] { original.prng })[0];
+        grid = original.grid.fork();
+        sim = original.sim.newLike();
+        sim.setStepEnd(this::publishGridChanges);
+        curResPop = original.curResPop;
+        newResPop = original.newResPop;
+        if (original.resPopAdder != null) {
+            resPopAdder = new LongAdder();
+            resPopAdder.add(original.resPopAdder.sum());
+        }
+        original.sim.forEachEntry(entry -> {
+            if (entry.action instanceof PeriodInitAction) {
+                sim.addActionAt(entry.atStep, Simulator.Phase.PRE_PERIOD, new PeriodInitAction());
+            } else if (entry.action instanceof PeriodEndAction) {
+                sim.addActionAt(entry.atStep, Simulator.Phase.POST_PERIOD, new PeriodEndAction());
+            } else if (!original.residents.isUpdateAction(entry.action)) {
+                throw new UnsupportedOperationException(
+                        "Cannot fork action " + entry.action.getClass().getSimpleName());
+            }
+        });
+        residents = original.residents.copyFor(this, original.prng, prng);
+    }
+
+    /**
+     * Return a fork of the game: a new game in the same state, which can be
+     * changed and stepped without changing this game.
+     *
+     * The grid of the fork shares its storage with the grid of this game
+     * until either is changed (see Grid.fork), so the cost of a fork is
+     * mostly the cost of the changes made to it. The simulator queue, the
+     * state of the residential zones and the random number generators are
+     * copied. This game must not be changed while the fork is in use.
+     *
+     * @return the fork
+     * @throws UnsupportedOperationException if the game has a queued action
+     *      that cannot be forked
+     */
+    public Cs345Opolis fork() {
+        return new Cs345Opolis(this);
+    }
+
+    /**
+     * Return copies of random number generators. Each copy returns the same
+     * values as its original.
+     * @param prngs the generators
+     * @return the copies
+     */
+    public static Random[] copyRandoms(Random[] prngs) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(prngs);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(
+                    new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (Random[]) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            throw new AssertionError("Cannot copy random number generators", ex);
+        }
+    }
+
     /* Create a new grid object. The width and height are taken from the
-     * properties object. The grid is initialized to all DIRT.
+     * properties object. The grid is initialized to all DIRT, unless a saved
+     * map is to be used (see Grid.savedGrid). The saved map is only opened,
+     * so it is still there for openSavedGrid.
      */
     private void newGrid() {
         int width = Integer.parseInt(props.getProperty(GRID_WIDTH));
         int height = Integer.parseInt(props.getProperty(GRID_HEIGHT));
-        grid = Grid.emptyGrid(width, height, Dirt.DIRT);
+        grid = Grid.savedGrid(width, height, props, null);
+        if (grid == null)
+            grid = Grid.emptyGrid(width, height, Dirt.DIRT, props);
+    }
+
+    /**
+     * Use the map saved in the map file as the grid in place of a map from
+     * the given generator, if the grid storage is MAPPED, the property
+     * cs345opolis.grid.reuse is true and the file holds a map of the given
+     * size that the generator would make now (see Grid.savedGrid). The map
+     * is not read, so this takes the same time for any size of map. The
+     * generator goes on as if it had made the map, so a seeded generator
+     * makes the same maps whether or not the saved map is used.
+     * @param width the grid width
+     * @param height the grid height
+     * @param generator the map generator
+     * @return true if the saved map is used, otherwise false and the grid
+     *      is not changed
+     */
+    public boolean openSavedGrid(int width, int height, MapGenerator generator) {
+        Grid saved = Grid.savedGrid(width, height, props, generator);
+        if (saved == null)
+            return false;
+        grid = saved;
+        return true;
     }
 
 
     /**
-     * Generate a new grid initialized by the given map generator.
+     * Generate a new grid initialized by the given map generator. With
+     * MAPPED storage, the map replaces the map saved in the map file.
      * @param width the grid width
      * @param height the grid height
      * @param generator the map generator to be used to create the map
      * @throws IllegalArgumentException if either the width or height is <= MIN_GRID_SIZE
      */
     public void newMapGrid(int width, int height, MapGenerator generator) {
-        grid = new Grid(width, height);
+        grid = new Grid(width, height, props);
+        byte[] before = generator.saveState();
         generator.generateMap(grid);
+        grid.compact();
+        grid.flush(before, generator.saveState());
     }
 
     /* Create a new Simulator for the game. */
@@ -114,6 +234,70 @@ public class Cs345Opolis {
         sim = new Simulator(props);
     }
 
+    /**
+     * Save the complete state of the game to a snapshot file. See
+     * GameSnapshot for the format.
+     * @param file the file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void saveSnapshot(Path file) throws IOException {
+        GameSnapshot.save(this, file);
+    }
+
+    /**
+     * Replace the state of the game with the state saved in a snapshot file.
+     * If the snapshot cannot be read, the game is unchanged.
+     * @param file the file to read
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public void loadSnapshot(Path file) throws IOException {
+        GameSnapshot.load(this, file);
+    }
+
+    /* Accessors for GameSnapshot. */
+    Properties getProps() {
+        return props;
+    }
+
+    Simulator getSim() {
+        return sim;
+    }
+
+    Random getPrng() {
+        return prng;
+    }
+
+    boolean hasActionPrngs() {
+        return resPopAdder != null;
+    }
+
+    /**
+     * Return the system holding the state of the residential zones.
+     * @return the residential system
+     */
+    public ResidentialSystem getResidentialSystem() {
+        return residents;
+    }
+
+    /**
+     * Replace the grid, simulator and random number generator of the game.
+     * The game is given a new, empty residential system. This is used by
+     * GameSnapshot when a game is loaded. newResPop is the whole population
+     * accumulated in the period (see periodResPop), so nothing is left in
+     * the adder.
+     */
+    void restore(Grid grid, Simulator sim, Random prng, int curResPop, int newResPop) {
+        this.grid = grid;
+        this.sim = sim;
+        this.sim.setStepEnd(this::publishGridChanges);
+        this.prng = prng;
+        this.residents = new ResidentialSystem(this);
+        this.curResPop = curResPop;
+        this.newResPop = newResPop;
+        if (resPopAdder != null)
+            resPopAdder.reset();
+    }
+
     /**
      * Return the associated Grid object for this game.
      * @return the Grid object
@@ -122,6 +306,11 @@ public class Cs345Opolis {
         return grid;
     }
 
+    /* Deliver the changes to the grid made in a step, see Grid.publishChanges. */
+    private void publishGridChanges() {
+        grid.publishChanges();
+    }
+
     /**
      * Step the model a single step.
      */
@@ -129,16 +318,81 @@ public class Cs345Opolis {
         sim.step();
     }
 
+    /**
+     * Step the model the given number of steps.
+     * @param n the number of steps
+     */
+    public void advance(int n) {
+        sim.advance(n);
+    }
+
+    /**
+     * Step the model the given number of steps, approximately.
+     *
+     * The populations of the residential zones are sampled from their
+     * distribution after the number of updates they would have had (see
+     * ResidentialSystem.fastForward), instead of being updated every week.
+     * The last whole period before the end is simulated exactly, so the
+     * population totals are those of an exact period. If the steps do not
+     * cover more than one period, the model is stepped exactly.
+     *
+     * The result has the same distribution as advance(n), but is not the
+     * same game, and it uses the random number generators differently.
+     *
+     * @param n the number of steps
+     * @throws UnsupportedOperationException if the game has a queued action
+     *      that cannot be moved forward
+     */
+    public void fastForward(int n) {
+        int target = getCurrentStep() + n;
+        int skipTo = (target / Simulator.STEPS_PER_PERIOD - 1) * Simulator.STEPS_PER_PERIOD;
+        if (skipTo > getCurrentStep()) {
+            List<Simulator.QEntry> periodEntries = new ArrayList<>();
+            sim.forEachEntry(entry -> {
+                if (entry.action instanceof PeriodInitAction
+                        || entry.action instanceof PeriodEndAction) {
+                    periodEntries.add(entry);
+                } else if (!residents.isUpdateAction(entry.action)) {
+                    throw new UnsupportedOperationException(
+                            "Cannot fast forward action " + entry.action.getClass().getSimpleName());
+                }
+            });
+            residents.fastForward(skipTo);
+            for (Simulator.QEntry entry : periodEntries) {
+                // Period actions keep their step in the period
+                int periods = Math.max(0, (skipTo - entry.atStep + Simulator.STEPS_PER_PERIOD - 1)
+                        / Simulator.STEPS_PER_PERIOD);
+                sim.cancelAction(entry);
+                sim.addActionAt(entry.atStep + periods * Simulator.STEPS_PER_PERIOD,
+                        entry.phase, entry.action);
+            }
+            sim.jumpTo(skipTo);
+        }
+        sim.advance(target - getCurrentStep());
+    }
+
     /**
      * Add the given action to the simulation. The action will be scheduled
      * for its first execution at the given time.
      * @param time the time for first execution of the action
      * @param action the action to be executed
+     * @return a handle that can be used to cancel the action
      */
-     public void addAction(SimulatorTime time, SimulatorAction action) {
-         sim.addAction(time, action);
+     public ActionHandle addAction(SimulatorTime time, SimulatorAction action) {
+         return sim.addAction(time, action);
      }
 
+    /**
+     * Add the given action to the simulation, queued at the given step.
+     * See Simulator.addActionAt.
+     * @param atStep the step at which the action is queued
+     * @param action the action to be executed
+     * @return a handle that can be used to cancel the action
+     */
+    public ActionHandle addActionAt(int atStep, SimulatorAction action) {
+        return sim.addActionAt(atStep, action);
+    }
+
     /**
      * Remove the given action from the simulation.
      * @param action the action to be executed
@@ -147,6 +401,52 @@ public class Cs345Opolis {
         sim.removeAction(action);
     }
 
+    /**
+     * Cancel the action for the given handle.
+     * @param handle the handle returned by addAction
+     */
+    public void cancelAction(ActionHandle handle) {
+        sim.cancelAction(handle);
+    }
+
+    /**
+     * Call body.accept(i) for each i with from <= i < to, in parallel if the
+     * property cs345opolis.simulator.threads is more than one. See
+     * Simulator.parallelFor.
+     * @param from the first index
+     * @param to one more than the last index
+     * @param body the body called for each index
+     */
+    public void parallelFor(int from, int to, IntConsumer body) {
+        sim.parallelFor(from, to, body);
+    }
+
+    /**
+     * Return the statistics recorded by the simulator.
+     * @return the statistics, or null if statistics are disabled
+     */
+    public SimulatorStats getStats() {
+        return sim.getStats();
+    }
+
+    /**
+     * Get the current step for the simulation.
+     * @return the current step
+     */
+    public int getCurrentStep() {
+        return sim.getCurrentStep();
+    }
+
+    /**
+     * Return the next occurrence of the given step of a period after the
+     * current step. See Simulator.nextStep.
+     * @param stepNumber the number of the step in a period
+     * @return the step
+     */
+    public int nextStep(int stepNumber) {
+        return sim.nextStep(stepNumber);
+    }
+
     /**
      * Get the current time for the simulation.
      * @return a SimulatorTime object with the current time.
@@ -168,6 +468,58 @@ public class Cs345Opolis {
         return prng.nextInt(n);
     }
 
+    /**
+     * Return a random number generator for use by a new action.
+     *
+     * If zones may be updated in parallel (the property
+     * cs345opolis.simulator.threads is set), each action is given its own
+     * generator. The generator is seeded from the game's generator, so the
+     * sequence of values is the same no matter how the actions are
+     * scheduled on threads. Otherwise, the game's generator is returned.
+     *
+     * @return the random number generator
+     */
+    public Random actionPrng() {
+        if (resPopAdder == null)
+            return prng;
+        return new Random(prng.nextLong());
+    }
+
+    /**
+     * Return true if the random number generator is the game's generator,
+     * which actions without their own generator share (see actionPrng).
+     * @param prng the generator
+     * @return true if it is the game's generator
+     */
+    public boolean isGamePrng(Random prng) {
+        return prng == this.prng;
+    }
+
+    /**
+     * Add to the residential population accumulating for the current period.
+     *
+     * This method is safe to call from zone updates running in parallel
+     * (see Simulator.parallelFor).
+     * @param pop the population to add
+     */
+    public void addResPop(int pop) {
+        if (resPopAdder == null) {
+            newResPop += pop;
+        } else {
+            resPopAdder.add(pop);
+        }
+    }
+
+    /**
+     * Return the residential population accumulated so far in the current
+     * period: newResPop, together with what addResPop has added to the
+     * adder when actions may run in parallel.
+     * @return the population
+     */
+    int periodResPop() {
+        return resPopAdder == null ? newResPop : newResPop + (int) resPopAdder.sum();
+    }
+
     /**
      * Return true is the given rectangle in the grid is buildable.
      *
@@ -181,15 +533,7 @@ public class Cs345Opolis {
      * @return true if all cells in the rectangle are buildable
      */
     public boolean isBuildable(GridRectangle rect) {
-        if (!grid.validRegion(rect))
-            return false;
-        for (int col = rect.x; col < rect.x + rect.w; col++) {
-            for (int row = rect.y; row < rect.y + rect.h; row++) {
-                if (!grid.cellAt(col, row).isBuildable())
-                    return false;
-            }
-        }
-        return true;
+        return grid.validRegion(rect) && grid.allBuildable(rect);
     }
 
     /**
@@ -205,41 +549,118 @@ public class Cs345Opolis {
      * @return true if the region is bulldozeable, otherwise false
      */
     public boolean isBulldozeable(GridRectangle rect) {
+        return grid.validRegion(rect) && grid.allBulldozeable(rect);
+    }
+
+    /**
+     * Return the centers of the sites in the given rectangle where a
+     * residential zone can be placed: the 3x3 regions of the rectangle that
+     * are buildable. The whole grid is searched in a few word operations
+     * per cell (see Grid.findBuildableSites).
+     *
+     * If the region is not valid (extends outside the grid), no sites are
+     * returned.
+     *
+     * @param rect the GridRectangle to search
+     * @param limit the largest number of sites to return, or 0 for all
+     * @return the centers of the sites, in row order
+     */
+    public List<GridLocation> findSites(GridRectangle rect, int limit) {
         if (!grid.validRegion(rect))
-            return false;
-        for (int col = rect.x; col < rect.x + rect.w; col++) {
-            for (int row = rect.y; row < rect.y + rect.h; row++) {
-                if (!grid.cellAt(col, row).isBulldozeable())
-                    return false;
-            }
-        }
-        return true;
+            return new ArrayList<>();
+        return grid.findBuildableSites(rect, limit);
     }
 
     /**
      * Bulldoze the given region. If the region is not valid (extends outside)
-     * the grid, an IndexOutOfBoundsException will be thrown.
+     * the grid, an IndexOutOfBoundsException will be thrown and nothing is
+     * bulldozed.
      * @param rect the GridRectangle to bulldoze
      */
     public void bulldoze(GridRectangle rect) {
-        for (int col = rect.x; col < rect.x + rect.w; col++) {
-            for (int row = rect.y; row < rect.y + rect.h; row++) {
-                Cell cell = grid.cellAt(col, row);
-                cell.bulldoze();
-                grid.setCellAt(col, row, CellConstants.DIRT);
+        // Bulldozing a zone clears all of its cells, so the rest of its cells
+        // in the region are visited as DIRT
+        grid.forEachInRect(rect, (x, y, cell) -> cell.bulldoze(this));
+        grid.fillRect(rect, CellConstants.DIRT);
+    }
+
+    /**
+     * Return a digest of the state of the game.
+     *
+     * The digest combines the current step, the population totals (see
+     * periodResPop), the type of every cell in the grid, and the center,
+     * population and creation order of every residential zone. Two games
+     * that have been given the same commands with the same random seeds have
+     * the same digest.
+     *
+     * The digest of each tile of the grid is kept, and is only taken again
+     * once the tile has changed (see Grid.tileVersion). So after the first
+     * digest, a digest reads the cells of the changed tiles, the version of
+     * each tile and the state of each zone, not the whole grid.
+     *
+     * @return the digest
+     */
+    public long stateDigest() {
+        long digest = 31L * (31L * (31L * getCurrentStep() + curResPop) + periodResPop());
+        int tilesAcross = grid.getTilesAcross();
+        boolean all = digestGrid != grid;
+        if (all) {
+            digestGrid = grid;
+            tileDigests = new long[tilesAcross * grid.getTilesDown()];
+            tileDigestVersions = new int[tileDigests.length];
+        }
+        Cell[] span = null;
+        for (int tileY = 0; tileY < grid.getTilesDown(); tileY++) {
+            for (int tileX = 0; tileX < tilesAcross; tileX++) {
+                int tile = tileX + tilesAcross * tileY;
+                int version = grid.tileVersion(tileX, tileY);
+                if (all || tileDigestVersions[tile] != version) {
+                    if (span == null)
+                        span = new Cell[Grid.TILE_SIZE];
+                    tileDigests[tile] = tileDigest(tileX, tileY, span);
+                    tileDigestVersions[tile] = version;
+                }
+                digest = 31 * digest + tileDigests[tile];
+            }
+        }
+        // The zones are added up, so the digest does not depend on the order
+        // they are visited in
+        long[] zones = {0};
+        residents.forEachZone((x, y, population, zonePrng, atStep, sequence) -> {
+            long zone = 0x9E3779B97F4A7C15L * (31L * (31L * (31L * x + y) + population) + sequence);
+            zones[0] += zone ^ (zone >>> 32);
+        });
+        return 31 * digest + zones[0];
+    }
+
+    /* Return the digest of the types of the cells of a tile, in row order. */
+    private long tileDigest(int tileX, int tileY, Cell[] span) {
+        int left = tileX * Grid.TILE_SIZE;
+        int top = tileY * Grid.TILE_SIZE;
+        int width = Math.min(grid.getWidth() - left, Grid.TILE_SIZE);
+        int bottom = Math.min(grid.getHeight(), top + Grid.TILE_SIZE);
+        long digest = 0;
+        for (int y = top; y < bottom; y++) {
+            grid.getRowSpan(left, y, width, span, 0);
+            for (int i = 0; i < width; i++) {
+                digest = 31 * digest + span[i].getCellType().ordinal();
             }
         }
+        return digest;
     }
 
     /**
      * Perform initialization actions at the start of a period.
      *
-     * This action is run at step 0 of each simulation period. It's purpose
-     * is to do initialization for the beginning of a period.
+     * This action is run at step 0 of each simulation period, in the
+     * PRE_PERIOD phase. It's purpose is to do initialization for the
+     * beginning of a period.
      */
-    private class PeriodInitAction implements SimulatorAction {
+    class PeriodInitAction implements SimulatorAction {
         @Override public int doAction() {
             newResPop = 0;
+            if (resPopAdder != null)
+                resPopAdder.reset();
 
             // Reschedule to run at beginning of next period
             return Simulator.STEPS_PER_PERIOD;
@@ -249,11 +670,14 @@ public class Cs345Opolis {
     /**
      * Perform actions at the end of a period.
      *
-     * This action is run at the last step of each simulation period. It's
-     * purpose is to do cleanup/finalization for the period.
+     * This action is run at the last step of each simulation period, in the
+     * POST_PERIOD phase, after all zone updates for the step. It's purpose is
+     * to do cleanup/finalization for the period.
      */
-    private class PeriodEndAction implements SimulatorAction {
+    class PeriodEndAction implements SimulatorAction {
         @Override public int doAction() {
+            if (resPopAdder != null)
+                newResPop += (int) resPopAdder.sumThenReset();
             curResPop = newResPop;
 
             // Reschedule to run at end of next period
@@ -0,0 +1,156 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The cells of a grid that have been set since the changes were last
+ * taken, coalesced into rectangles.
+ *
+ * Each tile of the grid that has been changed keeps the bounding box of
+ * its changed cells, so recording a change is a few comparisons and many
+ * changes to a tile take no more space than one. When the changes are
+ * taken, the boxes of tiles next to each other in a row of tiles are
+ * joined if together they form a rectangle, as they do for a filled region.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class DirtyRegion {
+
+    private final int width;
+    private final int height;
+    private final int tileShift;
+    private final int tilesAcross;
+
+    /* The bounding box of the changes to each tile, valid if the tile is in
+     * the list of dirty tiles. */
+    private final int[] left;
+    private final int[] top;
+    private final int[] right; // Exclusive
+    private final int[] bottom; // Exclusive
+
+    private int[] dirty = new int[16]; // The tiles that have changed
+    private int dirtyCount = 0;
+    private boolean all = false; // True if the whole grid has changed
+
+    /**
+     * Create an empty dirty region for a grid.
+     * @param width the width of the grid
+     * @param height the height of the grid
+     * @param tileShift the log base 2 of the tile size
+     * @param tilesAcross the number of tiles in each row of tiles
+     * @param tilesDown the number of rows of tiles
+     */
+    DirtyRegion(int width, int height, int tileShift, int tilesAcross, int tilesDown) {
+        this.width = width;
+        this.height = height;
+        this.tileShift = tileShift;
+        this.tilesAcross = tilesAcross;
+        int tiles = tilesAcross * tilesDown;
+        left = new int[tiles];
+        top = new int[tiles];
+        right = new int[tiles];
+        bottom = new int[tiles];
+        Arrays.fill(left, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Record a change to part of a row, which is inside one tile.
+     * @param x the x coordinate of the first cell
+     * @param y the y coordinate of the row
+     * @param length the number of cells, > 0
+     */
+    void add(int x, int y, int length) {
+        if (all)
+            return;
+        int tile = (x >>> tileShift) + tilesAcross * (y >>> tileShift);
+        if (left[tile] == Integer.MAX_VALUE) {
+            if (dirtyCount == dirty.length)
+                dirty = Arrays.copyOf(dirty, 2 * dirtyCount);
+            dirty[dirtyCount++] = tile;
+            left[tile] = x;
+            top[tile] = y;
+            right[tile] = x + length;
+            bottom[tile] = y + 1;
+        } else {
+            left[tile] = Math.min(left[tile], x);
+            top[tile] = Math.min(top[tile], y);
+            right[tile] = Math.max(right[tile], x + length);
+            bottom[tile] = Math.max(bottom[tile], y + 1);
+        }
+    }
+
+    /**
+     * Record a change to every cell of the grid.
+     */
+    void addAll() {
+        clearTiles();
+        all = true;
+    }
+
+    /**
+     * Return true if nothing has changed.
+     * @return true if there are no changes
+     */
+    boolean isEmpty() {
+        return !all && dirtyCount == 0;
+    }
+
+    /**
+     * Return the rectangles covering the changes, and forget the changes.
+     * @return the rectangles, in row order of their tiles
+     */
+    List<GridRectangle> take() {
+        List<GridRectangle> result = peek();
+        all = false;
+        clearTiles();
+        return result;
+    }
+
+    /**
+     * Return the rectangles covering the changes, and keep the changes.
+     * @return the rectangles, in row order of their tiles
+     */
+    List<GridRectangle> peek() {
+        List<GridRectangle> result = new ArrayList<>();
+        if (all) {
+            result.add(new GridRectangle(0, 0, width, height));
+            return result;
+        }
+        Arrays.sort(dirty, 0, dirtyCount);
+        int i = 0;
+        while (i < dirtyCount) {
+            int tile = dirty[i];
+            int end = right[tile];
+            // Join the next tile of the row while the boxes meet at the
+            // tile edge and cover the same rows
+            int j = i + 1;
+            while (j < dirtyCount && dirty[j] == dirty[j - 1] + 1
+                    && dirty[j] % tilesAcross != 0
+                    && end == left[dirty[j]]
+                    && (end & ((1 << tileShift) - 1)) == 0
+                    && top[dirty[j]] == top[tile] && bottom[dirty[j]] == bottom[tile]) {
+                end = right[dirty[j]];
+                j++;
+            }
+            result.add(new GridRectangle(left[tile], top[tile],
+                    end - left[tile], bottom[tile] - top[tile]));
+            i = j;
+        }
+        return result;
+    }
+
+    private void clearTiles() {
+        for (int i = 0; i < dirtyCount; i++) {
+            left[dirty[i]] = Integer.MAX_VALUE;
+        }
+        dirtyCount = 0;
+    }
+}
@@ -0,0 +1,347 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import cs345.model.cell.CellConstants;
+import cs345.model.cell.CellType;
+import cs345.model.cell.Industrial;
+import cs345.model.cell.Residential;
+import cs345.model.cell.ResidentialSystem;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Saves and loads the complete state of a game as a binary snapshot.
+ *
+ * The snapshot format (version 1) is, with all values big endian:
+ *
+ *   int magic, int version
+ *   int width, int height
+ *   int current step, int curResPop,
+ *   int newResPop (the population accumulated so far in the period)
+ *   random: the game's random number generator
+ *   int run count, then for each run: byte CellType ordinal, int length
+ *   int period action count, then for each:
+ *       byte kind (0 = init, 1 = end), int atStep, int sequence
+ *   int zone count, then for each residential zone:
+ *       int x, int y, int population, int atStep, int sequence (the
+ *       creation order of the zone),
+ *       byte 1 followed by a random if the zone has its own generator,
+ *       otherwise byte 0
+ *
+ * The terrain is stored as runs of cells of the same CellType, in row order.
+ * Zone cells are restored from the zone table. A random is stored as an int
+ * length followed by the serialized java.util.Random object. Nothing but a
+ * java.util.Random is read back (see RANDOM_FILTER).
+ *
+ * Loading maps the file into memory and restores the grid a run at a time.
+ * The period actions, and the zones, are restored in order of their sequence
+ * numbers, so they run in the same order as in the saved game.
+ *
+ * A zone of a game that runs zones in parallel (see Cs345Opolis.actionPrng)
+ * must have its own generator, and a zone of any other game uses the
+ * game's generator. A snapshot saved with the other setting is loaded with
+ * each zone given the generator that Cs345Opolis.actionPrng returns for it,
+ * in order of sequence, so the game never shares one generator between
+ * threads. The game then continues differently than it would have with the
+ * setting of the saved game.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class GameSnapshot {
+
+    private static final int MAGIC = 0x43533453; // "CS4S"
+    private static final int VERSION = 1;
+
+    private static final byte PERIOD_INIT = 0;
+    private static final byte PERIOD_END = 1;
+
+    /* A random in a snapshot may only be a java.util.Random, which holds no
+     * other objects. */
+    private static final ObjectInputFilter RANDOM_FILTER =
+            ObjectInputFilter.Config.createFilter("maxdepth=1;java.util.Random;!*");
+
+    /* Constructor is not used. */
+    private GameSnapshot() { }
+
+    /**
+     * Save the state of the game to the file.
+     * @param game the game
+     * @param file the file
+     * @throws IOException if the file cannot be written, or the game has an
+     *      action that cannot be saved
+     */
+    static void save(Cs345Opolis game, Path file) throws IOException {
+        Simulator sim = game.getSim();
+        ResidentialSystem residents = game.getResidentialSystem();
+        List<Simulator.QEntry> periodEntries = new ArrayList<>();
+        List<Simulator.QEntry> others = new ArrayList<>();
+        sim.forEachEntry(entry -> {
+            if (residents.isUpdateAction(entry.action))
+                return;
+            if (entry.action instanceof Cs345Opolis.PeriodInitAction
+                    || entry.action instanceof Cs345Opolis.PeriodEndAction)
+                periodEntries.add(entry);
+            else
+                others.add(entry);
+        });
+        if (!others.isEmpty())
+            throw new IOException("Cannot save action " + others.get(0).action.getClass().getSimpleName());
+
+        // x, y, population, atStep, sequence for each zone
+        int[] zoneData = new int[5 * residents.getZoneCount()];
+        Random[] zonePrngs = new Random[residents.getZoneCount()];
+        int[] zoneCount = {0};
+        residents.forEachZone((x, y, population, prng, atStep, sequence) -> {
+            int z = zoneCount[0]++;
+            zoneData[5 * z] = x;
+            zoneData[5 * z + 1] = y;
+            zoneData[5 * z + 2] = population;
+            zoneData[5 * z + 3] = atStep;
+            zoneData[5 * z + 4] = sequence;
+            zonePrngs[z] = prng;
+        });
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file.toFile()), 1 << 16))) {
+            Grid grid = game.getGrid();
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(grid.getWidth());
+            out.writeInt(grid.getHeight());
+            out.writeInt(sim.getCurrentStep());
+            out.writeInt(game.curResPop);
+            out.writeInt(game.periodResPop());
+            writeRandom(out, game.getPrng());
+            writeTerrain(out, grid);
+
+            out.writeInt(periodEntries.size());
+            for (Simulator.QEntry entry : periodEntries) {
+                out.writeByte(entry.action instanceof Cs345Opolis.PeriodInitAction
+                        ? PERIOD_INIT : PERIOD_END);
+                out.writeInt(entry.atStep);
+                out.writeInt(entry.sequence);
+            }
+
+            out.writeInt(zonePrngs.length);
+            for (int z = 0; z < zonePrngs.length; z++) {
+                for (int j = 0; j < 5; j++) {
+                    out.writeInt(zoneData[5 * z + j]);
+                }
+                if (zonePrngs[z] == game.getPrng()) {
+                    out.writeByte(0);
+                } else {
+                    out.writeByte(1);
+                    writeRandom(out, zonePrngs[z]);
+                }
+            }
+        }
+    }
+
+    /* Write the grid as runs of cells with the same type. */
+    private static void writeTerrain(DataOutputStream out, Grid grid) throws IOException {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        ByteArrayOutputStream runBytes = new ByteArrayOutputStream();
+        DataOutputStream runs = new DataOutputStream(runBytes);
+        int runCount = 0;
+        CellType runType = null;
+        int runLength = 0;
+        Cell[] row = new Cell[width];
+        for (int y = 0; y < height; y++) {
+            grid.getRowSpan(0, y, width, row, 0);
+            for (int x = 0; x < width; x++) {
+                CellType type = row[x].getCellType();
+                if (type != runType) {
+                    if (runLength > 0) {
+                        runs.writeByte(runType.ordinal());
+                        runs.writeInt(runLength);
+                        runCount++;
+                    }
+                    runType = type;
+                    runLength = 0;
+                }
+                runLength++;
+            }
+        }
+        runs.writeByte(runType.ordinal());
+        runs.writeInt(runLength);
+        runCount++;
+        out.writeInt(runCount);
+        runBytes.writeTo(out);
+    }
+
+    /* Write a random number generator, including its current state. */
+    private static void writeRandom(DataOutputStream out, Random prng) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objOut = new ObjectOutputStream(bytes)) {
+            objOut.writeObject(prng);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    /**
+     * Load the state of the game from the file. The game is only changed if
+     * the whole snapshot has been read successfully.
+     * @param game the game
+     * @param file the file
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    static void load(Cs345Opolis game, Path file) throws IOException {
+        ByteBuffer in;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            load(game, in);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException
+                | IllegalArgumentException ex) {
+            throw new IOException("Snapshot is damaged: " + file, ex);
+        }
+    }
+
+    private static void load(Cs345Opolis game, ByteBuffer in) throws IOException {
+        if (in.getInt() != MAGIC)
+            throw new IOException("Not a CS345Opolis snapshot");
+        int version = in.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported snapshot version " + version);
+
+        int width = in.getInt();
+        int height = in.getInt();
+        int curStep = in.getInt();
+        int curResPop = in.getInt();
+        int newResPop = in.getInt();
+        Random prng = readRandom(in);
+        // The terrain is checked now and read into the grid once the rest of
+        // the snapshot has been read, so a damaged snapshot does not change
+        // the map file of a MAPPED grid
+        ByteBuffer terrain = in.duplicate();
+        readTerrain(in, (long) width * height, null);
+
+        int periodCount = in.getInt();
+        byte[] periodKinds = new byte[periodCount];
+        int[] periodSteps = new int[periodCount];
+        int[] periodSequences = new int[periodCount];
+        for (int i = 0; i < periodCount; i++) {
+            periodKinds[i] = in.get();
+            periodSteps[i] = in.getInt();
+            periodSequences[i] = in.getInt();
+        }
+
+        int zoneCount = in.getInt();
+        int[] zoneData = new int[5 * zoneCount]; // x, y, population, atStep, sequence
+        Random[] zonePrngs = new Random[zoneCount];
+        for (int i = 0; i < zoneCount; i++) {
+            for (int j = 0; j < 5; j++) {
+                zoneData[5 * i + j] = in.getInt();
+            }
+            zonePrngs[i] = in.get() == 0 ? prng : readRandom(in);
+            int x = zoneData[5 * i];
+            int y = zoneData[5 * i + 1];
+            if (x < 1 || y < 1 || x > width - 2 || y > height - 2)
+                throw new IOException("Zone outside of grid in snapshot");
+        }
+
+        // Order all actions by sequence. Restoring them in this order gives
+        // them new sequence numbers in the same order as the saved ones.
+        int total = periodCount + zoneCount;
+        long[] order = new long[total];
+        for (int i = 0; i < periodCount; i++) {
+            order[i] = ((long) periodSequences[i] << 32) | i;
+        }
+        for (int i = 0; i < zoneCount; i++) {
+            order[periodCount + i] = ((long) zoneData[5 * i + 4] << 32) | (periodCount + i);
+        }
+        Arrays.sort(order);
+
+        // The snapshot has been read. Now replace the game's state.
+        Grid grid = new Grid(width, height, game.getProps());
+        readTerrain(terrain, (long) width * height, grid);
+        grid.compact();
+        grid.flush(null, null);
+        Simulator sim = new Simulator(game.getProps());
+        sim.setCurrentStep(curStep);
+        game.restore(grid, sim, prng, curResPop, newResPop);
+        for (long key : order) {
+            int i = (int) key;
+            if (i < periodCount) {
+                if (periodKinds[i] == PERIOD_INIT) {
+                    sim.addActionAt(periodSteps[i], Simulator.Phase.PRE_PERIOD,
+                            game.new PeriodInitAction());
+                } else {
+                    sim.addActionAt(periodSteps[i], Simulator.Phase.POST_PERIOD,
+                            game.new PeriodEndAction());
+                }
+            } else {
+                int z = i - periodCount;
+                Random zonePrng = zonePrngs[z];
+                if ((zonePrng != prng) != game.hasActionPrngs())
+                    zonePrng = game.actionPrng(); // Saved with the other setting
+                GridLocation center = new GridLocation(zoneData[5 * z], zoneData[5 * z + 1]);
+                new Residential(game, center, zoneData[5 * z + 2], zonePrng,
+                        zoneData[5 * z + 3]);
+            }
+        }
+    }
+
+    /* Read the runs of cells into the grid. If grid is null, the runs are
+     * only checked. */
+    private static void readTerrain(ByteBuffer in, long size, Grid grid) throws IOException {
+        CellType[] types = CellType.values();
+        int runCount = in.getInt();
+        long index = 0;
+        for (int i = 0; i < runCount; i++) {
+            CellType type = types[in.get()];
+            int length = in.getInt();
+            if (length <= 0 || length > size - index)
+                throw new IOException("Bad terrain run in snapshot");
+            if (grid != null)
+                grid.fillRange(index, length, cellFor(type));
+            index += length;
+        }
+        if (index != size)
+            throw new IOException("Terrain in snapshot does not fill the grid");
+    }
+
+    /* Return the cell to be stored for a cell type. Residential cells are
+     * replaced when the zones are restored. */
+    private static Cell cellFor(CellType type) {
+        switch (type) {
+            case WOODS:
+                return CellConstants.WOODS;
+            case RIVER:
+                return CellConstants.RIVER;
+            case INDUSTRIAL:
+                return new Industrial();
+            default:
+                return CellConstants.DIRT;
+        }
+    }
+
+    /* Read a random number generator. */
+    private static Random readRandom(ByteBuffer in) throws IOException {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        try (ObjectInputStream objIn = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            objIn.setObjectInputFilter(RANDOM_FILTER);
+            return (Random) objIn.readObject();
+        } catch (ClassNotFoundException | ClassCastException | InvalidClassException ex) {
+            throw new IOException("Bad random number generator in snapshot", ex);
+        }
+    }
+}
@@ -6,7 +6,16 @@
 
 package cs345.model;
 
-import java.util.Arrays;
+import cs345.model.cell.Dirt;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.function.Predicate;
 
 /**
  * A two-dimensional array of Cells.
@@ -17,11 +26,51 @@ import java.util.Arrays;
  * the same as screen display coordinates. The minimum width and height for a
  * grid is 20.
  *
- * The underlying array is maintained as a one-dimensional array. The methods
- * cellAt and setCellAt, used to manipulate the Cells, both take x and y
- * coordinates.
+ * The grid is divided into square tiles of TILE_SIZE cells on each side,
+ * numbered in row order. The cells are kept in a GridStorage a tile to a
+ * page, in row order within the tile. The methods cellAt and setCellAt, used
+ * to manipulate the Cells, both take x and y coordinates.
+ * The storage is selected by the property cs345opolis.grid.storage:
+ *   CELLS (the default) keeps a reference to the Cell object of each cell.
+ *   PACKED keeps one byte for each cell, with the Cell objects of zones in a
+ *     side table (see PackedPages). A 10,000 by 10,000 grid takes about
+ *     100 MB instead of 400 to 800 MB.
+ *   MAPPED keeps the bytes of PACKED in the memory-mapped file named by the
+ *     property cs345opolis.grid.file (see MappedPages), so the grid can be
+ *     larger than the heap. A map written to the file can be opened again,
+ *     without reading it, by savedGrid, if the property
+ *     cs345opolis.grid.reuse is true.
+ *
+ * Storage is copy-on-write. A grid can be forked, giving a second grid that
+ * shares all the storage of the first. A shared page of storage is copied by
+ * whichever grid first sets a cell in it, so forking only costs one pointer
+ * per page and the cost of changes to a fork grows with the pages it changes.
+ * A tile that is all DIRT, WOODS or RIVER is a shared page of that cell
+ * (except in MAPPED storage), so the large uniform areas of a map take
+ * almost no memory until they are changed.
+ *
+ * Each tile has a version, which is incremented whenever a cell of the tile
+ * is set. Code that keeps something computed from the cells of a tile can
+ * compare versions to skip the tiles that have not changed.
  *
- * Utility routines are provided for standard operations on the grid.
+ * Code that must know which cells change can instead register a
+ * GridListener. The changes are coalesced into dirty rectangles (see
+ * DirtyRegion) and delivered to the listeners by publishChanges, which the
+ * game calls at the end of each step. A grid with no listeners records
+ * nothing; a fork of a grid starts with none.
+ *
+ * Utility routines are provided for standard operations on the grid. The
+ * region methods (forEachInRect, allInRect, getRowSpan, fillRowSpan and
+ * fillRect) check the region once and then walk the storage in row order,
+ * so loops over a region should use them rather than cellAt and setCellAt.
+ * Whether a rectangle is all buildable or all bulldozeable is answered by
+ * allBuildable and allBulldozeable from an OccupancyIndex of each, without
+ * reading the cells. Each index is built the first time it is used and
+ * kept up to date as cells are set, so grids that are never asked cost
+ * nothing extra. The connected regions of land and water are kept by a
+ * ComponentIndex, which is also built the first time it is used, and the
+ * counts of cells by type by a CityStats, which is counted the first time
+ * it is used.
  *
  * Two factory functions are provided for constructing a grid:
  *   1. emptyGrid(width, height, default) creates a grid of the given width
@@ -34,12 +83,54 @@ import java.util.Arrays;
  */
 public class Grid {
 
+    /* Tiles are 1 << TILE_SHIFT cells on a side, and one page of storage. */
+    private static final int TILE_SHIFT = GridStorage.TILE_SHIFT;
+    private static final int TILE_MASK = GridStorage.TILE_MASK;
+    private static final int PAGE_SHIFT = GridStorage.PAGE_SHIFT;
+    private static final int PAGE_SIZE = GridStorage.PAGE_SIZE;
+
     /** Minimum size for each edge of the grid. */
     public static final int MIN_GRID_SIZE = 20;
 
+    /** Number of cells on each side of a tile. */
+    public static final int TILE_SIZE = GridStorage.TILE_SIZE;
+
+    public static final String GRID_STORAGE_PROP = "cs345opolis.grid.storage";
+    public static final String GRID_FILE_PROP = "cs345opolis.grid.file";
+    public static final String GRID_REUSE_PROP = "cs345opolis.grid.reuse";
+
+    /**
+     * Setting that determines how the cells of a grid are stored.
+     */
+    public enum StorageType {
+        CELLS,  // a Cell reference per cell, the default
+        PACKED, // a byte per cell, with zones in a side table
+        MAPPED  // PACKED, with the bytes in a memory-mapped file
+    }
+
     private int width; // Width of the grid
     private int height; // Height of the grid
-    private Cell[] grid; // The grid
+    private int tilesAcross; // Number of tiles in each row of tiles
+    private int tilesDown; // Number of rows of tiles
+    private GridStorage cells; // The cells, a tile to a page
+    private int[] versions; // The version of each tile
+    private long version = 0; // The number of changes to the grid
+    private OccupancyIndex unbuildable; // null until allBuildable is used
+    private OccupancyIndex unbulldozeable; // null until allBulldozeable is used
+    private ComponentIndex components; // null until components is used
+    private CityStats stats; // null until cityStats is used
+    private Cell[] replaced; // The cells replaced by fillRow, for stats
+    private List<GridListener> listeners; // null if there are none
+    private DirtyRegion dirty; // Unpublished changes, null if there are no listeners
+
+    /**
+     * Return the storage type selected by the given properties.
+     * @param props the properties
+     * @return the storage type
+     */
+    public static StorageType storageType(Properties props) {
+        return StorageType.valueOf(props.getProperty(GRID_STORAGE_PROP, "CELLS"));
+    }
 
     /**
      * Return width of grid
@@ -57,6 +148,130 @@ public class Grid {
         return height;
     }
 
+    /**
+     * Visitor for the cells of a region of the grid. See forEachInRect.
+     */
+    public interface CellVisitor {
+        /**
+         * Visit a cell.
+         * @param x the x coordinate of the cell
+         * @param y the y coordinate of the cell
+         * @param cell the cell
+         */
+        void visit(int x, int y, Cell cell);
+    }
+
+    /**
+     * Return the number of tiles in each row of tiles.
+     * @return the number of tiles
+     */
+    public int getTilesAcross() {
+        return tilesAcross;
+    }
+
+    /**
+     * Return the number of rows of tiles.
+     * @return the number of rows
+     */
+    public int getTilesDown() {
+        return tilesDown;
+    }
+
+    /**
+     * Return the version of a tile. This changes whenever a cell of the tile
+     * is set.
+     * @param tileX the column of the tile
+     * @param tileY the row of the tile
+     * @return the version
+     */
+    public int tileVersion(int tileX, int tileY) {
+        return versions[tileX + tilesAcross * tileY];
+    }
+
+    /**
+     * Return the version of the grid. This changes whenever a cell of the
+     * grid is set.
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /* Return the storage index of the cell at x, y. */
+    private long indexOf(int x, int y) {
+        long tile = (x >>> TILE_SHIFT) + (long) tilesAcross * (y >>> TILE_SHIFT);
+        return tile << PAGE_SHIFT | (y & TILE_MASK) << TILE_SHIFT | (x & TILE_MASK);
+    }
+
+    /* Record a change to the tile holding x, y. */
+    private void changed(int x, int y) {
+        versions[(x >>> TILE_SHIFT) + tilesAcross * (y >>> TILE_SHIFT)]++;
+        version++;
+    }
+
+    /**
+     * Register a listener for the changes to the grid. The listener is
+     * called by publishChanges with the changes made after it was added.
+     * @param listener the listener
+     */
+    public void addListener(GridListener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+            dirty = new DirtyRegion(width, height, TILE_SHIFT, tilesAcross, tilesDown);
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener. When the last listener is removed, changes are no
+     * longer recorded.
+     * @param listener the listener
+     */
+    public void removeListener(GridListener listener) {
+        if (listeners != null && listeners.remove(listener) && listeners.isEmpty()) {
+            listeners = null;
+            dirty = null;
+        }
+    }
+
+    /**
+     * Deliver the changes made since the last call to the listeners, if
+     * there are any changes. The game calls this at the end of each step;
+     * code that changes the grid between steps may call it to deliver the
+     * changes at once.
+     */
+    public void publishChanges() {
+        if (dirty == null || dirty.isEmpty())
+            return;
+        List<GridRectangle> rects = dirty.take();
+        for (GridListener listener : new ArrayList<>(listeners)) {
+            listener.gridChanged(this, rects);
+        }
+    }
+
+    /**
+     * Deliver the changes made since the last call of publishChanges to one
+     * listener, if there are any changes, and keep them for the others. This
+     * is for a listener that must be up to date in the middle of a step,
+     * without breaking up the changes of the step for the other listeners.
+     * The listener is given the same changes again by the next
+     * publishChanges.
+     * @param listener the listener, which must be registered with this grid
+     */
+    public void publishChangesTo(GridListener listener) {
+        if (dirty == null || dirty.isEmpty())
+            return;
+        listener.gridChanged(this, dirty.peek());
+    }
+
+    /* Record in the occupancy indexes that part of a row has been set. */
+    private void indexRow(int x, int y, int length, Cell cell) {
+        if (unbuildable != null)
+            unbuildable.set(x, y, length, cell);
+        if (unbulldozeable != null)
+            unbulldozeable.set(x, y, length, cell);
+    }
+
     /**
      * Return true if the given x, y are valid grid coordinates
      * @param x the x coordinate
@@ -97,7 +312,7 @@ public class Grid {
         if (!validCoords(x, y))
             throw new IndexOutOfBoundsException(
                     String.format("(%d, %d) is not a valid grid coordinate", x, y));
-        return grid[x + width * y];
+        return cells.get(indexOf(x, y));
     }
 
     /**
@@ -105,7 +320,71 @@ public class Grid {
      * @param cell the cell object to fill the grid
      */
     public void fill(Cell cell) {
-        Arrays.fill(grid, cell);
+        for (int tile = 0; tile < versions.length; tile++) {
+            cells.fill((long) tile << PAGE_SHIFT, PAGE_SIZE, cell);
+            versions[tile]++;
+        }
+        version++;
+        if (dirty != null)
+            dirty.addAll();
+        if (stats != null)
+            stats.reset(cell, (long) width * height);
+        if (unbuildable != null)
+            unbuildable.fill(cell);
+        if (unbulldozeable != null)
+            unbulldozeable.fill(cell);
+    }
+
+    /**
+     * Set a range of cells, in row order, to the given cell. The range starts
+     * at index x + width * y of the cell at x, y.
+     * @param start the index of the first cell
+     * @param length the number of cells
+     * @param cell the cell object
+     */
+    void fillRange(long start, long length, Cell cell) {
+        long end = start + length;
+        while (start < end) {
+            // The part of the range in one row
+            int x = (int) (start % width);
+            int y = (int) (start / width);
+            int run = (int) Math.min(end - start, width - x);
+            fillRow(x, y, run, cell);
+            start += run;
+        }
+    }
+
+    /**
+     * Replace each tile that is all one shared cell by the shared page of
+     * that cell. This is done once the grid has been written cell by cell,
+     * as by a map generator.
+     */
+    void compact() {
+        cells.compact();
+    }
+
+    /**
+     * Return a fork of this grid. The fork has the same cells as this grid.
+     * Changes to either grid afterward do not change the other. The pages of
+     * the grid are shared until they are changed.
+     * @return the fork
+     */
+    Grid fork() {
+        return new Grid(this);
+    }
+
+    /* Construct a fork of a grid, sharing all of its pages. */
+    private Grid(Grid original) {
+        this.width = original.width;
+        this.height = original.height;
+        this.tilesAcross = original.tilesAcross;
+        this.tilesDown = original.tilesDown;
+        this.cells = original.cells.fork();
+        this.versions = original.versions.clone();
+        this.version = original.version;
+        this.unbuildable = original.unbuildable == null ? null : original.unbuildable.fork();
+        this.unbulldozeable = original.unbulldozeable == null ? null : original.unbulldozeable.fork();
+        this.stats = original.stats == null ? null : original.stats.copy();
     }
 
     /**
@@ -122,11 +401,246 @@ public class Grid {
         if (!validCoords(x, y))
             throw new IndexOutOfBoundsException(
                     String.format("(%d, %d) is not a valid grid coordinate", x, y));
-        grid[x + width * y] = cell;
+        long index = indexOf(x, y);
+        if (stats != null) {
+            stats.remove(cells.get(index), 1);
+            stats.add(cell, 1);
+        }
+        cells.set(index, cell);
+        changed(x, y);
+        indexRow(x, y, 1, cell);
+        if (dirty != null)
+            dirty.add(x, y, 1);
+    }
+
+    /**
+     * Visit each cell of a rectangle, in row order. The visitor may set cells
+     * of the grid; each cell is read when it is visited.
+     * @param rect the rectangle
+     * @param visitor the visitor
+     * @throws IndexOutOfBoundsException if the rectangle is not inside the grid
+     */
+    public void forEachInRect(GridRectangle rect, CellVisitor visitor) {
+        checkRegion(rect);
+        int end = rect.x + rect.w;
+        for (int y = rect.y; y < rect.y + rect.h; y++) {
+            for (int x = rect.x; x < end; ) {
+                int run = Math.min(end - x, TILE_SIZE - (x & TILE_MASK));
+                long index = indexOf(x, y);
+                for (int i = 0; i < run; i++) {
+                    visitor.visit(x + i, y, cells.get(index + i));
+                }
+                x += run;
+            }
+        }
+    }
+
+    /**
+     * Return true if every cell of a rectangle passes a test. The cells are
+     * tested in row order, stopping at the first that fails.
+     * @param rect the rectangle
+     * @param test the test
+     * @return true if all cells pass the test
+     * @throws IndexOutOfBoundsException if the rectangle is not inside the grid
+     */
+    public boolean allInRect(GridRectangle rect, Predicate<Cell> test) {
+        checkRegion(rect);
+        int end = rect.x + rect.w;
+        for (int y = rect.y; y < rect.y + rect.h; y++) {
+            for (int x = rect.x; x < end; ) {
+                int run = Math.min(end - x, TILE_SIZE - (x & TILE_MASK));
+                long index = indexOf(x, y);
+                for (int i = 0; i < run; i++) {
+                    if (!test.test(cells.get(index + i)))
+                        return false;
+                }
+                x += run;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if every cell of a rectangle is buildable (see
+     * Cell.isBuildable). This is answered from an index of the cells that
+     * are not, which is built the first time this is called.
+     * @param rect the rectangle
+     * @return true if all cells are buildable
+     * @throws IndexOutOfBoundsException if the rectangle is not inside the grid
+     */
+    public boolean allBuildable(GridRectangle rect) {
+        checkRegion(rect);
+        if (unbuildable == null)
+            unbuildable = new OccupancyIndex(this, Cell::isBuildable);
+        return unbuildable.allPass(rect);
+    }
+
+    /**
+     * Return true if every cell of a rectangle is bulldozeable (see
+     * Cell.isBulldozeable). This is answered from an index of the cells that
+     * are not, which is built the first time this is called.
+     * @param rect the rectangle
+     * @return true if all cells are bulldozeable
+     * @throws IndexOutOfBoundsException if the rectangle is not inside the grid
+     */
+    public boolean allBulldozeable(GridRectangle rect) {
+        checkRegion(rect);
+        if (unbulldozeable == null)
+            unbulldozeable = new OccupancyIndex(this, Cell::isBulldozeable);
+        return unbulldozeable.allPass(rect);
+    }
+
+    /**
+     * Return the centers of the sites for zones inside a rectangle: the 3x3
+     * blocks of the rectangle whose cells are all buildable. This uses the
+     * same index as allBuildable.
+     * @param rect the rectangle
+     * @param limit the largest number of sites to return, or 0 for all
+     * @return the centers of the sites, in row order
+     * @throws IndexOutOfBoundsException if the rectangle is not inside the grid
+     */
+    public List<GridLocation> findBuildableSites(GridRectangle rect, int limit) {
+        checkRegion(rect);
+        if (unbuildable == null)
+            unbuildable = new OccupancyIndex(this, Cell::isBuildable);
+        return unbuildable.clearBlocks(rect, limit);
+    }
+
+    /**
+     * Return the index of the connected regions of land and water of the
+     * grid. The index is built the first time this is called, and is then
+     * kept up to date as the grid changes.
+     * @return the index
+     * @throws UnsupportedOperationException if the grid is too large for
+     *      the index
+     */
+    public ComponentIndex components() {
+        if (components == null)
+            components = new ComponentIndex(this);
+        return components;
+    }
+
+    /**
+     * Return the counts of the cells of the grid. The cells are counted the
+     * first time this is called, and the counts are then kept up to date as
+     * cells are set.
+     * @return the counts, which change as the grid does
+     */
+    public CityStats cityStats() {
+        if (stats == null) {
+            CityStats counted = new CityStats();
+            Cell[] row = new Cell[width];
+            for (int y = 0; y < height; y++) {
+                getRowSpan(0, y, width, row, 0);
+                for (Cell cell : row) {
+                    counted.add(cell, 1);
+                }
+            }
+            stats = counted;
+        }
+        return stats;
+    }
+
+    /**
+     * Copy the cells of part of a row into an array.
+     * @param x the x coordinate of the first cell
+     * @param y the y coordinate of the row
+     * @param length the number of cells
+     * @param dest the array
+     * @param offset the index in the array of the first cell
+     * @throws IndexOutOfBoundsException if the cells are not inside the grid
+     */
+    public void getRowSpan(int x, int y, int length, Cell[] dest, int offset) {
+        checkRowSpan(x, y, length);
+        int end = x + length;
+        while (x < end) {
+            int run = Math.min(end - x, TILE_SIZE - (x & TILE_MASK));
+            cells.getRange(indexOf(x, y), dest, offset, run);
+            offset += run;
+            x += run;
+        }
+    }
+
+    /**
+     * Set the cells of part of a row to the given cell.
+     * @param x the x coordinate of the first cell
+     * @param y the y coordinate of the row
+     * @param length the number of cells
+     * @param cell the cell object
+     * @throws IndexOutOfBoundsException if the cells are not inside the grid
+     * @throws NullPointerException if the passed cell is null
+     */
+    public void fillRowSpan(int x, int y, int length, Cell cell) {
+        if (cell == null)
+            throw new NullPointerException("Cannot set null cell");
+        checkRowSpan(x, y, length);
+        fillRow(x, y, length, cell);
+    }
+
+    /**
+     * Set the cells of a rectangle to the given cell.
+     * @param rect the rectangle
+     * @param cell the cell object
+     * @throws IndexOutOfBoundsException if the rectangle is not inside the grid
+     * @throws NullPointerException if the passed cell is null
+     */
+    public void fillRect(GridRectangle rect, Cell cell) {
+        if (cell == null)
+            throw new NullPointerException("Cannot set null cell");
+        checkRegion(rect);
+        for (int y = rect.y; y < rect.y + rect.h; y++) {
+            fillRow(rect.x, y, rect.w, cell);
+        }
+    }
+
+    /* Set part of a row, which is inside the grid. */
+    private void fillRow(int x, int y, int length, Cell cell) {
+        int end = x + length;
+        while (x < end) {
+            int run = Math.min(end - x, TILE_SIZE - (x & TILE_MASK));
+            if (stats != null) {
+                if (replaced == null)
+                    replaced = new Cell[TILE_SIZE];
+                cells.getRange(indexOf(x, y), replaced, 0, run);
+                for (int i = 0; i < run; i++) {
+                    stats.remove(replaced[i], 1);
+                }
+                stats.add(cell, run);
+            }
+            cells.fill(indexOf(x, y), run, cell);
+            changed(x, y);
+            if (dirty != null)
+                dirty.add(x, y, run);
+            x += run;
+        }
+        indexRow(end - length, y, length, cell);
+    }
+
+    private void checkRegion(GridRectangle rect) {
+        if (!validRegion(rect))
+            throw new IndexOutOfBoundsException(rect + " is not inside the grid");
+    }
+
+    private void checkRowSpan(int x, int y, int length) {
+        if (length < 0 || !validCoords(x, y) || x + length > width)
+            throw new IndexOutOfBoundsException(String.format(
+                    "Row span (%d, %d) length %d is not inside the grid", x, y, length));
+    }
+
+    /**
+     * Write the grid to its map file, if it has one, and record that the
+     * file holds a complete map that can be opened by savedGrid. The file is
+     * not changed after this (see MappedPages).
+     * @param before the state of the map generator before it made the map
+     *      (see MapGenerator.saveState), or null if the map was not generated
+     * @param after the state of the map generator after, or null
+     */
+    void flush(byte[] before, byte[] after) {
+        cells.flush(before, after);
     }
 
     /**
-     * Generate a empty grid.
+     * Generate a empty grid with CELLS storage.
      *
      * Note that the created grid is null. It is expected that the calling
      * factory function (emptyGrid or newMapGrid)  will fill the grid.
@@ -135,13 +649,114 @@ public class Grid {
      * @throws IllegalArgumentException if either the width or height is < MIN_GRID_SIZE
      */
     Grid(int width, int height) {
+        setSize(width, height);
+        this.cells = new CellPages(storageSize());
+    }
+
+    /**
+     * Generate a empty grid with the storage selected by the given
+     * properties. MAPPED storage creates a new map file, replacing any
+     * existing one.
+     *
+     * Note that the created grid is null, or DIRT for PACKED and MAPPED
+     * storage. It is expected that the calling factory function (emptyGrid
+     * or newMapGrid) will fill the grid.
+     * @param width the grid width
+     * @param height the grid height
+     * @param props the properties
+     * @throws IllegalArgumentException if either the width or height is < MIN_GRID_SIZE
+     * @throws UncheckedIOException if the map file cannot be created
+     */
+    Grid(int width, int height, Properties props) {
+        setSize(width, height);
+        long size = storageSize();
+        switch (storageType(props)) {
+            case PACKED:
+                cells = new PackedPages(size);
+                break;
+            case MAPPED:
+                try {
+                    cells = MappedPages.create(mapFile(props), width, height, size);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                break;
+            default:
+                cells = new CellPages(size);
+                break;
+        }
+    }
+
+    /* Construct a grid on the given storage. */
+    private Grid(int width, int height, GridStorage cells) {
+        setSize(width, height);
+        this.cells = cells;
+    }
+
+    /* Set the size of the grid and the number of tiles. */
+    private void setSize(int width, int height) {
+        checkSize(width, height);
+        this.width = width;
+        this.height = height;
+        this.tilesAcross = (width + TILE_MASK) >>> TILE_SHIFT;
+        this.tilesDown = (height + TILE_MASK) >>> TILE_SHIFT;
+        this.versions = new int[tilesAcross * tilesDown];
+    }
+
+    /* The number of cells in the storage, including the parts of the tiles
+     * on the right and bottom edges that are outside the grid. */
+    private long storageSize() {
+        return (long) tilesAcross * tilesDown << PAGE_SHIFT;
+    }
+
+    private static void checkSize(int width, int height) {
         if (width < MIN_GRID_SIZE || height < MIN_GRID_SIZE)
             throw new IllegalArgumentException(
                     String.format("Grid width and height must both be >= %d",
                             MIN_GRID_SIZE));
-        this.width = width;
-        this.height = height;
-        this.grid = new Cell[width * height];
+    }
+
+    private static Path mapFile(Properties props) {
+        return Paths.get(props.getProperty(GRID_FILE_PROP, "cs345opolis.map"));
+    }
+
+    /**
+     * Return a grid on the map saved in the map file, if the properties
+     * select MAPPED storage, cs345opolis.grid.reuse is true and the file
+     * holds a complete map of the given size (see flush). Only the header of
+     * the file is read.
+     *
+     * Given a generator, the map must be the map the generator would make
+     * now: it must have been made by a generator with the same configuration
+     * parameters and, if the generator is seeded, from the same state of its
+     * random number generator (see MapGenerator.restoreState). The random
+     * number generator is then set to its state after making the map, so
+     * the generator goes on as if it had just made the map.
+     * @param width the grid width
+     * @param height the grid height
+     * @param props the properties
+     * @param generator the map generator, or null
+     * @return the grid, or null if there is no saved map
+     * @throws UncheckedIOException if the map file cannot be read
+     */
+    static Grid savedGrid(int width, int height, Properties props, MapGenerator generator) {
+        if (storageType(props) != StorageType.MAPPED
+                || !Boolean.parseBoolean(props.getProperty(GRID_REUSE_PROP, "false")))
+            return null;
+        checkSize(width, height);
+        try {
+            Grid result = new Grid(width, height, (GridStorage) null);
+            MappedPages saved = MappedPages.open(mapFile(props), width, height, result.storageSize());
+            if (saved == null)
+                return null;
+            byte[][] states = saved.generatorStates();
+            if (generator != null && (states == null || !generator.restoreState(states[0], states[1])))
+                return null;
+            result.cells = saved;
+            return result;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
     }
 
     /**
@@ -160,4 +775,25 @@ public class Grid {
         result.fill(defaultCell);
         return result;
     }
+
+    /**
+     * Return a new grid with the storage selected by the given properties
+     * and all cells set to the default cell.
+     * @param width the grid width
+     * @param height the grid height
+     * @param defaultCell the default value for grid cells
+     * @param props the properties
+     * @return the created grid
+     * @throws IllegalArgumentException if either the width or height is <= MIN_GRID_SIZE
+     * @throws NullPointerException if default is null
+     */
+    static Grid emptyGrid(int width, int height, Cell defaultCell, Properties props) {
+        if (defaultCell == null)
+            throw new IllegalArgumentException("Cannot fill grid with null cell");
+        Grid result = new Grid(width, height, props);
+        // PACKED and MAPPED storage start as DIRT
+        if (defaultCell != Dirt.DIRT || storageType(props) == StorageType.CELLS)
+            result.fill(defaultCell);
+        return result;
+    }
 }
@@ -0,0 +1,33 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.List;
+
+/**
+ * Receives the changes to a grid (see Grid.addListener).
+ *
+ * The cells set since the last call are reported as a list of dirty
+ * rectangles that cover them. The rectangles do not overlap, but may cover
+ * cells that were not set, or were set to the cell they already held. A
+ * listener that takes its changes early with Grid.publishChangesTo is
+ * given those changes again with the rest of the step.
+ *
+ * A listener belongs to one grid. It is not moved to the new grid when a
+ * game replaces its grid, as loading a snapshot does, or to a fork.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public interface GridListener {
+
+    /**
+     * Called with the rectangles of the grid that have changed.
+     * @param grid the grid
+     * @param dirty the rectangles, in row order of their tiles. Never empty.
+     */
+    void gridChanged(Grid grid, List<GridRectangle> dirty);
+}
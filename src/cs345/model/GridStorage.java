@@ -0,0 +1,95 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+/**
+ * The storage for the cells of a Grid.
+ *
+ * Cells are addressed by an index computed by the Grid. The storage is kept
+ * in pages of PAGE_SIZE cells, and the Grid keeps one square tile of
+ * TILE_SIZE by TILE_SIZE cells in each page. Pages are copy-on-write: a fork
+ * of the storage shares all of its pages, and a shared page is copied by
+ * whichever storage first changes it.
+ *
+ * A page that is all one of the shared cells DIRT, WOODS and RIVER may be a
+ * flyweight page used by every storage, which is copied, like any shared
+ * page, when it is first changed.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+interface GridStorage {
+
+    /* Tiles are 1 << TILE_SHIFT cells on each side. */
+    int TILE_SHIFT = 6;
+    int TILE_SIZE = 1 << TILE_SHIFT;
+    int TILE_MASK = TILE_SIZE - 1;
+
+    /* Pages hold 1 << PAGE_SHIFT cells, one tile. */
+    int PAGE_SHIFT = 2 * TILE_SHIFT;
+    int PAGE_SIZE = 1 << PAGE_SHIFT;
+    int PAGE_MASK = PAGE_SIZE - 1;
+
+    /**
+     * Return the cell at an index.
+     * @param index the index
+     * @return the cell
+     */
+    Cell get(long index);
+
+    /**
+     * Copy a range of cells, which is inside one page, into an array. The
+     * default gets each cell.
+     * @param start the index of the first cell
+     * @param dest the array
+     * @param offset the index in the array of the first cell
+     * @param length the number of cells
+     */
+    default void getRange(long start, Cell[] dest, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            dest[offset + i] = get(start + i);
+        }
+    }
+
+    /**
+     * Set the cell at an index.
+     * @param index the index
+     * @param cell the cell, not null
+     */
+    void set(long index, Cell cell);
+
+    /**
+     * Set a range of cells to the given cell.
+     * @param start the index of the first cell
+     * @param length the number of cells
+     * @param cell the cell, not null
+     */
+    void fill(long start, long length, Cell cell);
+
+    /**
+     * Return a fork of the storage, which shares all of its pages.
+     * @return the fork
+     */
+    GridStorage fork();
+
+    /**
+     * Write the storage to the file that holds it, if it has one, and record
+     * that the file holds a complete map made by a map generator, with the
+     * states of the generator before and after it made the map. The default
+     * does nothing.
+     * @param before the state of the generator before (see
+     *      MapGenerator.saveState), or null if the map was not generated
+     * @param after the state of the generator after, or null
+     */
+    default void flush(byte[] before, byte[] after) { }
+
+    /**
+     * Replace each page that is all one shared cell by the flyweight page of
+     * that cell, if the storage has flyweight pages. The default does
+     * nothing.
+     */
+    default void compact() { }
+}
@@ -0,0 +1,83 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * An ActionQueue implemented as a binary heap.
+ *
+ * This is the original queue used by the Simulator. Each add and poll is
+ * O(log n). It is retained for comparison with TimingWheelQueue.
+ *
+ * Cancelled entries are left in the heap and discarded when they reach the
+ * head of the queue.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class HeapQueue implements ActionQueue {
+
+    private final PriorityQueue<Simulator.QEntry> queue =
+            new PriorityQueue<>(Simulator::compareEntries);
+
+    private int curStep = 0;
+    private int cancelled = 0; // Number of cancelled entries in the heap
+
+    @Override public void add(Simulator.QEntry entry) {
+        queue.add(entry);
+    }
+
+    @Override public Simulator.QEntry poll() {
+        return peek() == null ? null : queue.poll();
+    }
+
+    @Override public Simulator.QEntry peek() {
+        if (nextStep() > curStep)
+            return null;
+        return queue.peek();
+    }
+
+    @Override public int nextStep() {
+        while (!queue.isEmpty() && queue.peek().cancelled) {
+            queue.poll();
+            cancelled--;
+        }
+        return queue.isEmpty() ? Integer.MAX_VALUE : queue.peek().atStep;
+    }
+
+    @Override public Simulator.QEntry remove(SimulatorAction action) {
+        for (Iterator<Simulator.QEntry> iter = queue.iterator(); iter.hasNext();) {
+            Simulator.QEntry entry = iter.next();
+            if (!entry.cancelled && entry.action.equals(action)) {
+                iter.remove();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override public void cancel(Simulator.QEntry entry) {
+        cancelled++;
+    }
+
+    @Override public void forEach(Consumer<Simulator.QEntry> consumer) {
+        for (Simulator.QEntry entry : queue) {
+            if (!entry.cancelled)
+                consumer.accept(entry);
+        }
+    }
+
+    @Override public void advanceTo(int step) {
+        curStep = step;
+    }
+
+    @Override public int size() {
+        return queue.size() - cancelled;
+    }
+}
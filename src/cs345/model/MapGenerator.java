@@ -6,6 +6,8 @@
 
 package cs345.model;
 
+import java.io.*;
+import java.util.Arrays;
 import java.util.Properties;
 import java.util.Random;
 
@@ -28,6 +30,10 @@ public class MapGenerator {
     public static final String LAKE_LEVEL_PROP = "cs345opolis.mapgenerator.lakeLevel";
     public static final String RANDOM_SEED_PROP = "cs345opolis.mapgenerator.randomSeed";
 
+    /* A state holds nothing but a java.util.Random, see readState. */
+    private static final ObjectInputFilter RANDOM_FILTER =
+            ObjectInputFilter.Config.createFilter("maxdepth=1;java.util.Random;!*");
+
     /**
      * Setting that determines whether to generate a new map as an island.
      */
@@ -51,6 +57,7 @@ public class MapGenerator {
     private int lakeLevel = -1; //level for lake creation
 
     Random prng = null;
+    private boolean seeded = false; // true if the seed of prng was given
 
     /**
      * Create a new MapGenerator with default values.
@@ -68,6 +75,7 @@ public class MapGenerator {
             String prngSeed = props.getProperty(RANDOM_SEED_PROP);
             if (prngSeed != null) {
                 prng = new Random(Long.parseLong(prngSeed));
+                seeded = true;
             } else {
                 prng = new Random();
             }
@@ -147,6 +155,70 @@ public class MapGenerator {
      */
     public void setRandomSeed(long seed) {
         prng.setSeed(seed);
+        seeded = true;
+    }
+
+    /**
+     * Return the state of the generator: its configuration parameters and
+     * the state of its random number generator. A map file records the
+     * states before and after the map was generated (see Grid.savedGrid).
+     * @return the state
+     */
+    byte[] saveState() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeInt(createIsland.ordinal());
+            out.writeInt(treeLevel);
+            out.writeInt(curveLevel);
+            out.writeInt(lakeLevel);
+            out.writeObject(prng);
+        } catch (IOException ex) {
+            throw new AssertionError("Cannot save the random number generator", ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Take the place of generating a map from the states saved before and
+     * after it was generated, if this generator would generate the same
+     * map: the configuration parameters must be those of this generator,
+     * and if this generator is seeded, the state of its random number
+     * generator must be the state before. An unseeded generator may make
+     * any map, so its random number generator is not checked.
+     *
+     * The random number generator is set to the state after, so the next
+     * map generated is the one that would have been generated after the
+     * saved map.
+     * @param before the state before the map was generated, or null
+     * @param after the state after the map was generated, or null
+     * @return true if the state after was restored, otherwise false and the
+     *      generator is not changed
+     */
+    boolean restoreState(byte[] before, byte[] after) {
+        if (before == null || after == null)
+            return false;
+        if (seeded ? !Arrays.equals(saveState(), before) : readState(before) == null)
+            return false;
+        Random restored = readState(after);
+        if (restored == null)
+            return false;
+        prng = restored;
+        return true;
+    }
+
+    /* Return the random number generator of a state, or null if the state
+     * is not one saved by a generator with the configuration parameters of
+     * this one. */
+    private Random readState(byte[] state) {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state))) {
+            in.setObjectInputFilter(RANDOM_FILTER);
+            if (in.readInt() != createIsland.ordinal() || in.readInt() != treeLevel
+                    || in.readInt() != curveLevel || in.readInt() != lakeLevel)
+                return null;
+            return (Random) in.readObject();
+        } catch (IOException | ClassNotFoundException ex) {
+            return null; // Not a state saved by a generator
+        }
     }
 
     /* Working storage for grid locations. */
@@ -209,12 +281,7 @@ public class MapGenerator {
         final int WORLD_Y = grid.getHeight();
 
         grid.fill(RIVER);
-
-        for (int y = 5; y < WORLD_Y - 5; y++) {
-            for (int x = 5; x < WORLD_X - 5; x++) {
-                grid.setCellAt(x, y, DIRT);
-            }
-        }
+        grid.fillRect(new GridRectangle(5, 5, WORLD_X - 10, WORLD_Y - 10), DIRT);
 
         for (int x = 0; x < WORLD_X - 5; x += 2)
         {
@@ -361,11 +428,7 @@ public class MapGenerator {
     };
 
     private void BRivPlop(Grid grid) {
-        for (int x = 0; x < 9; x++) {
-            for (int y = 0; y < 9; y++) {
-                putOnMap(grid, BRMatrix[y][x], x, y);
-            }
-        }
+        plop(grid, BRMatrix);
     }
 
     private static final char [][] SRMatrix = new char[][] {
@@ -379,26 +442,29 @@ public class MapGenerator {
 
     private void SRivPlop(Grid grid)
     {
-        for (int x = 0; x < 6; x++)
-        {
-            for (int y = 0; y < 6; y++)
-            {
-                putOnMap(grid, SRMatrix[y][x], x, y);
-            }
-        }
+        plop(grid, SRMatrix);
     }
 
-    private void putOnMap(Grid grid, char mapChar, int xoff, int yoff) {
-        if (mapChar == 0)
-            return;
-
-        int xloc = mapX + xoff;
-        int yloc = mapY + yoff;
-
-        if (!grid.validCoords(xloc, yloc))
-            return;
-
-        grid.setCellAt(xloc, yloc, RIVER);
+    /* Put RIVER on the map at mapX, mapY where the matrix is not 0. The
+     * non-zero entries of each row of the matrices are contiguous, so each
+     * row is one span of the grid, cut to the part inside the grid. */
+    private void plop(Grid grid, char[][] matrix) {
+        for (int y = 0; y < matrix.length; y++) {
+            int yloc = mapY + y;
+            if (yloc < 0 || yloc >= grid.getHeight())
+                continue;
+            char[] row = matrix[y];
+            int first = 0;
+            while (first < row.length && row[first] == 0)
+                first++;
+            int last = row.length - 1;
+            while (last > first && row[last] == 0)
+                last--;
+            int from = Math.max(0, mapX + first);
+            int to = Math.min(grid.getWidth() - 1, mapX + last);
+            if (first < row.length && from <= to)
+                grid.fillRowSpan(from, yloc, to - from + 1, RIVER);
+        }
     }
 
 //    Ignore this for now
@@ -506,23 +572,45 @@ public class MapGenerator {
             DIRT,  WOODS, DIRT,  WOODS,
             WOODS, WOODS, WOODS, WOODS };
 
+    /* Each cell is smoothed using its neighbors as they are at that point,
+     * so the rows above and the cells to the left have already been
+     * smoothed. The rows are read a row at a time: above holds the smoothed
+     * row above, row the current row as it is smoothed, and below the row
+     * below. */
     private void smoothTrees(Grid grid) {
-        for (int mapY = 0; mapY < grid.getHeight(); mapY++) {
-            for (int mapX = 0; mapX < grid.getWidth(); mapX++) {
-                if (grid.cellAt(mapX, mapY).isTree()) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        Cell[] above = new Cell[width];
+        Cell[] row = new Cell[width];
+        Cell[] below = new Cell[width];
+        grid.getRowSpan(0, 0, width, row, 0);
+        for (int mapY = 0; mapY < height; mapY++) {
+            if (mapY + 1 < height)
+                grid.getRowSpan(0, mapY + 1, width, below, 0);
+            for (int mapX = 0; mapX < width; mapX++) {
+                if (row[mapX].isTree()) {
                     int bitindex = 0;
                     for (int z = 0; z < 4; z++) {
                         bitindex <<= 1;
                         int xtem = mapX + DX[z];
                         int ytem = mapY + DY[z];
-                        if (grid.validCoords(xtem, ytem) &&
-                                grid.cellAt(xtem, ytem).isTree()) {
-                            bitindex |= 1;
+                        if (xtem >= 0 && xtem < width && ytem >= 0 && ytem < height) {
+                            Cell[] cells = ytem < mapY ? above : ytem > mapY ? below : row;
+                            if (cells[xtem].isTree())
+                                bitindex |= 1;
                         }
                     }
-                    grid.setCellAt(mapX, mapY, TEdTab[bitindex & 15]);
+                    Cell smoothed = TEdTab[bitindex & 15];
+                    if (smoothed != row[mapX]) {
+                        row[mapX] = smoothed;
+                        grid.setCellAt(mapX, mapY, smoothed);
+                    }
                 }
             }
+            Cell[] done = above;
+            above = row;
+            row = below;
+            below = done;
         }
     }
 }
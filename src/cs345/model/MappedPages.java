@@ -0,0 +1,292 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import cs345.model.cell.Dirt;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GridStorage that keeps one byte for each cell in a memory-mapped file, so
+ * the size of the grid is not limited by the heap. The operating system
+ * keeps the parts of the file that are in use in memory.
+ *
+ * The bytes are those of PackedPages, and the Cell objects of zones are kept
+ * in a side table on the heap. The file is:
+ *
+ *   int magic, int width, int height, int complete
+ *   int length, then the state of the map generator before the map was
+ *       generated (see MapGenerator.saveState)
+ *   int length, then the state of the map generator after
+ *   a byte for each cell, a tile at a time (see Grid), at HEADER_SIZE
+ *
+ * The file is mapped in segments of 1 << SEGMENT_SHIFT bytes, since a single
+ * mapping cannot be larger than 2 GB. A new file is sparse and all DIRT.
+ * complete is set by flush, once a whole map has been written, with the
+ * states of the generator that made it, if any. A file that holds a complete
+ * map of the right size can be opened again later, which only maps it.
+ *
+ * Once the file is complete it is not written again, so it always holds the
+ * map as it was generated. Each page changed after flush, or after the file
+ * is opened, is copied to the heap, as a fork copies the pages it changes.
+ * Zones are never kept in the file.
+ *
+ * A fork shares the file and copies each page it changes to the heap. Until
+ * the file is complete, a fork sees later changes the original makes to
+ * pages it has not changed, so the original must not be changed while a
+ * fork is in use (see Cs345Opolis.fork).
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class MappedPages implements GridStorage {
+
+    private static final int MAGIC = 0x43534D54; // "CSMT"
+    private static final int HEADER_SIZE = 4096;
+    private static final int COMPLETE = 12; // Offset of complete in the header
+    private static final int GENERATOR = 16; // Offset of the generator states
+
+    /* Segments hold 1 << SEGMENT_SHIFT cells. */
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+    private final MappedByteBuffer header;
+    private final MappedByteBuffer[] segments;
+    private Map<Long, Cell> instances; // The cells with the INSTANCE bit set
+    private boolean instancesShared = false;
+
+    // The pages changed since the file was complete, or for a fork, the
+    // pages it has changed, by segment and page. null while the map is
+    // written to the file.
+    private byte[][][] copies;
+
+    private MappedPages(MappedByteBuffer header, MappedByteBuffer[] segments, boolean complete) {
+        this.header = header;
+        this.segments = segments;
+        this.instances = new HashMap<>();
+        this.copies = complete ? new byte[segments.length][][] : null;
+    }
+
+    /* Construct a fork, sharing the file and the pages of the original. */
+    private MappedPages(MappedPages original) {
+        this.header = original.header;
+        this.segments = original.segments;
+        this.instances = original.instances;
+        this.instancesShared = true;
+        this.copies = new byte[segments.length][][];
+        if (original.copies != null) {
+            for (int segment = 0; segment < copies.length; segment++) {
+                byte[][] pages = original.copies[segment];
+                if (pages != null) {
+                    copies[segment] = new byte[pages.length][];
+                    for (int page = 0; page < pages.length; page++) {
+                        if (pages[page] != null)
+                            copies[segment][page] = pages[page].clone();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a new map file of the given size, replacing any existing file.
+     * All of the cells are DIRT.
+     * @param file the file
+     * @param width the grid width
+     * @param height the grid height
+     * @param size the number of cells
+     * @return the storage
+     * @throws IOException if the file cannot be created
+     */
+    static MappedPages create(Path file, int width, int height, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            // Writing the last byte extends the file without writing the rest
+            channel.write(ByteBuffer.allocate(1), HEADER_SIZE + size - 1);
+            MappedPages result = map(channel, size, false);
+            result.header.putInt(0, MAGIC).putInt(4, width).putInt(8, height).putInt(COMPLETE, 0);
+            return result;
+        }
+    }
+
+    /**
+     * Open an existing map file. Only the header of the file is read. The
+     * file is not changed (see flush).
+     * @param file the file
+     * @param width the grid width
+     * @param height the grid height
+     * @param size the number of cells
+     * @return the storage, or null if the file does not exist or does not
+     *      hold a complete map of the given size
+     * @throws IOException if the file cannot be read
+     */
+    static MappedPages open(Path file, int width, int height, long size) throws IOException {
+        if (!Files.exists(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() != HEADER_SIZE + size)
+                return null;
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+            channel.read(head, 0);
+            if (head.getInt(0) != MAGIC || head.getInt(4) != width
+                    || head.getInt(8) != height || head.getInt(COMPLETE) == 0)
+                return null;
+            return map(channel, size, true);
+        }
+    }
+
+    /* Map the header and the cells of a file. */
+    private static MappedPages map(FileChannel channel, long size, boolean complete)
+            throws IOException {
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        MappedByteBuffer[] segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int segment = 0; segment < segments.length; segment++) {
+            long start = (long) segment << SEGMENT_SHIFT;
+            segments[segment] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + start,
+                    Math.min(size - start, 1L << SEGMENT_SHIFT));
+        }
+        return new MappedPages(header, segments, complete);
+    }
+
+    @Override public Cell get(long index) {
+        int segment = (int) (index >>> SEGMENT_SHIFT);
+        int offset = (int) index & SEGMENT_MASK;
+        byte code = copies == null ? segments[segment].get(offset) : copiedCode(segment, offset);
+        if (code >= 0)
+            return PackedPages.sharedCell(code);
+        Cell cell = instances.get(index);
+        return cell != null ? cell : Dirt.DIRT; // A zone from an earlier run
+    }
+
+    @Override public void set(long index, Cell cell) {
+        byte code = PackedPages.codeFor(cell);
+        int segment = (int) (index >>> SEGMENT_SHIFT);
+        int offset = (int) index & SEGMENT_MASK;
+        byte old;
+        if (copies == null) {
+            old = segments[segment].get(offset);
+            segments[segment].put(offset, code);
+        } else {
+            byte[] page = writablePage(segment, offset);
+            old = page[offset & PAGE_MASK];
+            page[offset & PAGE_MASK] = code;
+        }
+        if (old < 0 && code >= 0)
+            writableInstances().remove(index);
+        if (code < 0)
+            writableInstances().put(index, cell);
+    }
+
+    @Override public void fill(long start, long length, Cell cell) {
+        byte code = PackedPages.codeFor(cell);
+        if (copies != null || code < 0 || !instances.isEmpty()) {
+            for (long index = start; index < start + length; index++) {
+                set(index, cell);
+            }
+            return;
+        }
+        // Nothing to remove from the side table, so write the bytes directly
+        byte[] bytes = new byte[PAGE_SIZE];
+        Arrays.fill(bytes, code);
+        long end = start + length;
+        while (start < end) {
+            int segment = (int) (start >>> SEGMENT_SHIFT);
+            long segmentEnd = Math.min(end, (long) (segment + 1) << SEGMENT_SHIFT);
+            ByteBuffer buffer = segments[segment].duplicate();
+            buffer.position((int) start & SEGMENT_MASK);
+            for (long remaining = segmentEnd - start; remaining > 0; remaining -= PAGE_SIZE) {
+                buffer.put(bytes, 0, (int) Math.min(remaining, PAGE_SIZE));
+            }
+            start = segmentEnd;
+        }
+    }
+
+    @Override public GridStorage fork() {
+        instancesShared = true;
+        return new MappedPages(this);
+    }
+
+    /**
+     * Return the states of the map generator recorded by flush.
+     * @return the states before and after the map was generated, or null if
+     *      none were recorded
+     */
+    byte[][] generatorStates() {
+        byte[][] states = new byte[2][];
+        int offset = GENERATOR;
+        for (int i = 0; i < states.length; i++) {
+            int length = header.getInt(offset);
+            if (length <= 0 || length > HEADER_SIZE - offset - 4)
+                return null;
+            states[i] = new byte[length];
+            header.get(offset + 4, states[i]);
+            offset += 4 + length;
+        }
+        return states;
+    }
+
+    @Override public void flush(byte[] before, byte[] after) {
+        if (copies != null)
+            return; // The file is complete, or this is a fork
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        header.putInt(GENERATOR, 0);
+        if (before != null && after != null
+                && 8 + before.length + after.length <= HEADER_SIZE - GENERATOR) {
+            header.putInt(GENERATOR, before.length).put(GENERATOR + 4, before);
+            int offset = GENERATOR + 4 + before.length;
+            header.putInt(offset, after.length).put(offset + 4, after);
+        }
+        header.putInt(COMPLETE, 1);
+        header.force();
+        copies = new byte[segments.length][][];
+    }
+
+    /* Return the byte at an offset in a segment, once pages are copied. */
+    private byte copiedCode(int segment, int offset) {
+        byte[][] pages = copies[segment];
+        byte[] page = pages == null ? null : pages[offset >>> PAGE_SHIFT];
+        return page != null ? page[offset & PAGE_MASK] : segments[segment].get(offset);
+    }
+
+    /* Return the copy of the page holding an offset in a segment,
+     * first copying it from the file if it has not been copied. */
+    private byte[] writablePage(int segment, int offset) {
+        if (copies[segment] == null)
+            copies[segment] = new byte[(segments[segment].capacity() + PAGE_MASK) >>> PAGE_SHIFT][];
+        int page = offset >>> PAGE_SHIFT;
+        if (copies[segment][page] == null) {
+            int pageStart = page << PAGE_SHIFT;
+            byte[] bytes = new byte[PAGE_SIZE];
+            ByteBuffer buffer = segments[segment].duplicate();
+            buffer.position(pageStart);
+            buffer.get(bytes, 0, Math.min(PAGE_SIZE, buffer.capacity() - pageStart));
+            copies[segment][page] = bytes;
+        }
+        return copies[segment][page];
+    }
+
+    /* Return the side table, first copying it if it is shared. */
+    private Map<Long, Cell> writableInstances() {
+        if (instancesShared) {
+            instances = new HashMap<>(instances);
+            instancesShared = false;
+        }
+        return instances;
+    }
+}
@@ -0,0 +1,218 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * The cells of a grid that fail a test, such as Cell.isBuildable, kept as a
+ * bitset for each row of the grid.
+ *
+ * The grid updates the index whenever it sets a cell, so whether every cell
+ * of a rectangle passes the test is answered from the bits, 64 cells to a
+ * word, without reading the cells. A rectangle of h rows that fits in one or
+ * two words of each row costs h word tests, however many cells it covers.
+ *
+ * A summed-area table would answer in constant time for any rectangle, but
+ * setting one cell would change every entry below and to the right of it.
+ *
+ * The 3x3 blocks of a region that pass the test are found by sliding a
+ * window of three rows down the region. The words of the three rows are
+ * or'ed to give the columns with a cell that fails, and each word of those
+ * is or'ed with itself shifted left and right to give the centers with a
+ * failing column next to them, so each 64 centers take a few word
+ * operations.
+ *
+ * The rows are copy-on-write, like the pages of the grid's storage, so a
+ * fork of the grid shares the index until it sets a cell in a row.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class OccupancyIndex {
+
+    private final Predicate<Cell> test;
+    private final int words; // Words in each row
+    private final long[][] rows; // A bit for each cell, set if it fails the test
+    private final boolean[] shared; // True if the row is shared with a fork
+
+    /**
+     * Build the index of a grid.
+     * @param grid the grid
+     * @param test the test
+     */
+    OccupancyIndex(Grid grid, Predicate<Cell> test) {
+        int width = grid.getWidth();
+        this.test = test;
+        this.words = (width + 63) >>> 6;
+        this.rows = new long[grid.getHeight()][];
+        this.shared = new boolean[rows.length];
+        Cell[] row = new Cell[width];
+        for (int y = 0; y < rows.length; y++) {
+            long[] bits = new long[words];
+            grid.getRowSpan(0, y, width, row, 0);
+            for (int x = 0; x < width; x++) {
+                if (!test.test(row[x]))
+                    bits[x >>> 6] |= 1L << x;
+            }
+            rows[y] = bits;
+        }
+    }
+
+    /* Construct a fork of an index, sharing all of its rows. */
+    private OccupancyIndex(OccupancyIndex original) {
+        this.test = original.test;
+        this.words = original.words;
+        this.rows = original.rows.clone();
+        this.shared = new boolean[rows.length];
+        Arrays.fill(shared, true);
+        Arrays.fill(original.shared, true);
+    }
+
+    /**
+     * Return a fork of this index. Changes to either index afterward do not
+     * change the other.
+     * @return the fork
+     */
+    OccupancyIndex fork() {
+        return new OccupancyIndex(this);
+    }
+
+    /**
+     * Record that part of a row has been set to the given cell.
+     * @param x the x coordinate of the first cell
+     * @param y the y coordinate of the row
+     * @param length the number of cells, > 0
+     * @param cell the cell
+     */
+    void set(int x, int y, int length, Cell cell) {
+        boolean fails = !test.test(cell);
+        long[] bits = rows[y];
+        if (shared[y]) {
+            // Nothing to copy if the row already holds the new bits
+            if (allBits(bits, x, length, fails))
+                return;
+            bits = rows[y] = bits.clone();
+            shared[y] = false;
+        }
+        int end = x + length;
+        int first = x >>> 6;
+        int last = (end - 1) >>> 6;
+        for (int word = first; word <= last; word++) {
+            long mask = mask(word, first, last, x, end);
+            if (fails)
+                bits[word] |= mask;
+            else
+                bits[word] &= ~mask;
+        }
+    }
+
+    /**
+     * Record that every cell of the grid has been set to the given cell.
+     * @param cell the cell
+     */
+    void fill(Cell cell) {
+        long[] bits = new long[words];
+        if (!test.test(cell)) {
+            // The bits past the right edge of the grid are never tested
+            Arrays.fill(bits, -1L);
+        }
+        for (int y = 0; y < rows.length; y++) {
+            rows[y] = bits;
+            shared[y] = true;
+        }
+    }
+
+    /**
+     * Return true if every cell of a rectangle, which is inside the grid,
+     * passes the test.
+     * @param rect the rectangle
+     * @return true if no cell of the rectangle fails the test
+     */
+    boolean allPass(GridRectangle rect) {
+        int end = rect.x + rect.w;
+        int first = rect.x >>> 6;
+        int last = (end - 1) >>> 6;
+        for (int y = rect.y; y < rect.y + rect.h; y++) {
+            long[] bits = rows[y];
+            for (int word = first; word <= last; word++) {
+                if ((bits[word] & mask(word, first, last, rect.x, end)) != 0)
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the centers of the 3x3 blocks inside a rectangle, which is
+     * inside the grid, whose cells all pass the test. The centers are in
+     * row order.
+     * @param rect the rectangle
+     * @param limit the largest number of centers to return, or 0 for all
+     * @return the centers
+     */
+    List<GridLocation> clearBlocks(GridRectangle rect, int limit) {
+        List<GridLocation> result = new ArrayList<>();
+        // The centers are first .. last in each row
+        int first = rect.x + 1;
+        int last = rect.x + rect.w - 2;
+        if (last < first)
+            return result;
+        int firstWord = first >>> 6;
+        int lastWord = last >>> 6;
+        for (int y = rect.y + 1; y < rect.y + rect.h - 1; y++) {
+            long[] above = rows[y - 1];
+            long[] row = rows[y];
+            long[] below = rows[y + 1];
+            long previous = firstWord > 0
+                    ? above[firstWord - 1] | row[firstWord - 1] | below[firstWord - 1] : 0;
+            long columns = above[firstWord] | row[firstWord] | below[firstWord];
+            for (int word = firstWord; word <= lastWord; word++) {
+                long next = word + 1 < words ? above[word + 1] | row[word + 1] | below[word + 1] : 0;
+                long blocked = columns | columns << 1 | previous >>> 63
+                        | columns >>> 1 | next << 63;
+                long clear = ~blocked & mask(word, firstWord, lastWord, first, last + 1);
+                while (clear != 0) {
+                    int x = word << 6 | Long.numberOfTrailingZeros(clear);
+                    result.add(new GridLocation(x, y));
+                    if (result.size() == limit)
+                        return result;
+                    clear &= clear - 1;
+                }
+                previous = columns;
+                columns = next;
+            }
+        }
+        return result;
+    }
+
+    /* Return true if the bits of part of a row are all set, or all clear. */
+    private static boolean allBits(long[] bits, int x, int length, boolean set) {
+        int end = x + length;
+        int first = x >>> 6;
+        int last = (end - 1) >>> 6;
+        for (int word = first; word <= last; word++) {
+            long mask = mask(word, first, last, x, end);
+            if ((bits[word] & mask) != (set ? mask : 0))
+                return false;
+        }
+        return true;
+    }
+
+    /* The bits of a word that are in the cells start .. end - 1, where the
+     * words of those cells are first .. last. */
+    private static long mask(int word, int first, int last, int start, int end) {
+        long mask = -1L;
+        if (word == first)
+            mask &= -1L << start;
+        if (word == last)
+            mask &= -1L >>> -end;
+        return mask;
+    }
+}
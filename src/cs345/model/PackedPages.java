@@ -0,0 +1,213 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import cs345.model.cell.CellType;
+import cs345.model.cell.Dirt;
+import cs345.model.cell.River;
+import cs345.model.cell.Woods;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * GridStorage that keeps one byte for each cell.
+ *
+ * Nearly all cells are one of the shared cell objects DIRT, WOODS and RIVER.
+ * The byte of a cell is the ordinal of its CellType. For any other cell,
+ * such as a zone, the INSTANCE bit is also set, and the Cell object is kept
+ * in a side table indexed by the index of the cell. A grid of n cells uses
+ * at most about n bytes plus a table entry for each zone cell.
+ *
+ * The side table is copy-on-write like the pages: it is shared by a fork
+ * and copied by whichever storage first changes a zone cell.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class PackedPages implements GridStorage {
+
+    /* Set in the byte of a cell kept in the side table. */
+    private static final int INSTANCE = 0x80;
+
+    /* The shared cell objects, by CellType ordinal. null for other types. */
+    private static final Cell[] SHARED_CELLS = sharedCells();
+
+    /* The flyweight pages of the shared cells, by CellType ordinal. */
+    private static final byte[][] UNIFORM = uniformPages();
+
+    private final byte[][] pages;
+    private final boolean[] shared; // true if a page may be used by another storage
+    private Map<Long, Cell> instances; // The cells with the INSTANCE bit set
+    private boolean instancesShared = false;
+
+    /**
+     * Create storage for the given number of cells, all DIRT.
+     * @param size the number of cells
+     */
+    PackedPages(long size) {
+        int pageCount = (int) ((size + PAGE_MASK) >>> PAGE_SHIFT);
+        this.pages = new byte[pageCount][];
+        this.shared = new boolean[pageCount];
+        this.instances = new HashMap<>();
+        Arrays.fill(pages, UNIFORM[CellType.DIRT.ordinal()]);
+        Arrays.fill(shared, true);
+    }
+
+    /* Construct a fork, sharing all the pages of the original. */
+    private PackedPages(PackedPages original) {
+        this.pages = original.pages.clone();
+        this.shared = original.shared.clone();
+        this.instances = original.instances;
+        this.instancesShared = true;
+    }
+
+    private static Cell[] sharedCells() {
+        Cell[] cells = new Cell[CellType.values().length];
+        cells[CellType.DIRT.ordinal()] = Dirt.DIRT;
+        cells[CellType.WOODS.ordinal()] = Woods.WOODS;
+        cells[CellType.RIVER.ordinal()] = River.RIVER;
+        return cells;
+    }
+
+    private static byte[][] uniformPages() {
+        byte[][] result = new byte[SHARED_CELLS.length][];
+        for (int type = 0; type < result.length; type++) {
+            if (SHARED_CELLS[type] != null) {
+                result[type] = new byte[PAGE_SIZE];
+                Arrays.fill(result[type], (byte) type);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return the byte for a cell. This is also used by MappedPages.
+     * @param cell the cell
+     * @return the byte
+     */
+    static byte codeFor(Cell cell) {
+        int type = cell.getCellType().ordinal();
+        return (byte) (SHARED_CELLS[type] == cell ? type : INSTANCE | type);
+    }
+
+    /**
+     * Return the shared cell object for a byte without the INSTANCE bit.
+     * @param code the byte
+     * @return the cell
+     */
+    static Cell sharedCell(byte code) {
+        return SHARED_CELLS[code];
+    }
+
+    @Override public Cell get(long index) {
+        byte code = pages[(int) (index >>> PAGE_SHIFT)][(int) index & PAGE_MASK];
+        return code >= 0 ? SHARED_CELLS[code] : instances.get(index);
+    }
+
+    @Override public void getRange(long start, Cell[] dest, int offset, int length) {
+        byte[] page = pages[(int) (start >>> PAGE_SHIFT)];
+        int from = (int) start & PAGE_MASK;
+        for (int i = 0; i < length; i++) {
+            byte code = page[from + i];
+            dest[offset + i] = code >= 0 ? SHARED_CELLS[code] : instances.get(start + i);
+        }
+    }
+
+    @Override public void set(long index, Cell cell) {
+        byte code = codeFor(cell);
+        byte[] page = writablePage((int) (index >>> PAGE_SHIFT));
+        int offset = (int) index & PAGE_MASK;
+        if (page[offset] < 0 && code >= 0)
+            writableInstances().remove(index);
+        page[offset] = code;
+        if (code < 0)
+            writableInstances().put(index, cell);
+    }
+
+    @Override public void fill(long start, long length, Cell cell) {
+        byte code = codeFor(cell);
+        long end = start + length;
+        while (start < end) {
+            int page = (int) (start >>> PAGE_SHIFT);
+            long pageEnd = Math.min(end, (long) (page + 1) << PAGE_SHIFT);
+            if (pageEnd - start == PAGE_SIZE && code >= 0) {
+                removeInstances(page);
+                pages[page] = UNIFORM[code];
+                shared[page] = true;
+                start = pageEnd;
+                continue;
+            }
+            byte[] bytes = writablePage(page);
+            int from = (int) start & PAGE_MASK;
+            int to = ((int) (pageEnd - 1) & PAGE_MASK) + 1;
+            for (int i = from; i < to; i++) {
+                if (bytes[i] < 0)
+                    writableInstances().remove(start + i - from);
+            }
+            Arrays.fill(bytes, from, to, code);
+            if (code < 0) {
+                for (long i = start; i < pageEnd; i++) {
+                    writableInstances().put(i, cell);
+                }
+            }
+            start = pageEnd;
+        }
+    }
+
+    @Override public void compact() {
+        for (int page = 0; page < pages.length; page++) {
+            byte code = pages[page][0];
+            if (!shared[page] && code >= 0 && isAll(pages[page], code)) {
+                pages[page] = UNIFORM[code];
+                shared[page] = true;
+            }
+        }
+    }
+
+    private static boolean isAll(byte[] page, byte code) {
+        for (byte other : page) {
+            if (other != code)
+                return false;
+        }
+        return true;
+    }
+
+    /* Remove the side table entries of the cells of a page. */
+    private void removeInstances(int page) {
+        byte[] bytes = pages[page];
+        long start = (long) page << PAGE_SHIFT;
+        for (int i = 0; i < PAGE_SIZE; i++) {
+            if (bytes[i] < 0)
+                writableInstances().remove(start + i);
+        }
+    }
+
+    @Override public GridStorage fork() {
+        Arrays.fill(shared, true);
+        instancesShared = true;
+        return new PackedPages(this);
+    }
+
+    /* Return the page, first copying it if it is shared. */
+    private byte[] writablePage(int page) {
+        if (shared[page]) {
+            pages[page] = pages[page].clone();
+            shared[page] = false;
+        }
+        return pages[page];
+    }
+
+    /* Return the side table, first copying it if it is shared. */
+    private Map<Long, Cell> writableInstances() {
+        if (instancesShared) {
+            instances = new HashMap<>(instances);
+            instancesShared = false;
+        }
+        return instances;
+    }
+}
@@ -6,10 +6,13 @@
 
 package cs345.model;
 
-import java.util.Comparator;
-import java.util.Iterator;
-import java.util.PriorityQueue;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * Simulator used by the game.
@@ -24,10 +27,34 @@ import java.util.Properties;
  * number of steps in the future. If the int is zero or negative, the action is
  * forgotten.
  *
+ * Each action is registered in a Phase. The actions due at a step are run
+ * phase by phase, in the order of the Phase enumeration, and in the order
+ * they were added (their sequence number) within a phase. All actions of a
+ * phase are finished before any action of the next phase starts.
+ *
  * The clock for the game is maintained by the SimulatorTime class. The constant
  * STEPS_PER_PERIOD determines the number of simulator steps per period. In
  * the game, a period is one week.
  *
+ * Scheduled actions are held in an ActionQueue. By default this is a
+ * TimingWheelQueue, which has constant time insertion and removal of the
+ * actions due at a step. The original binary heap (HeapQueue) can be selected
+ * by setting the property cs345opolis.simulator.queue to HEAP.
+ *
+ * If the property cs345opolis.simulator.threads is set, an action may do its
+ * work in parallel with parallelFor, on a ForkJoinPool with that many
+ * threads. The cohorts of residential zones update their zones this way
+ * (see ResidentialSystem). Setting the property also makes the game give
+ * each zone its own random number generator, so the results of the game do
+ * not depend on the number of threads. The pools are shared by all
+ * simulators with the same number of threads, so replacing a game's
+ * simulator, as a new grid or loading a snapshot does, does not leave a
+ * pool behind.
+ *
+ * The simulator can record statistics about the steps and actions it
+ * executes. Recording is enabled by the property cs345opolis.simulator.stats
+ * or by setStatsEnabled. The statistics are retrieved with getStats.
+ *
  * @author Chris Reedy (Chris.Reedy@wwu.edu)
  */
 public class Simulator {
@@ -36,6 +63,23 @@ public class Simulator {
     public static final String SIMULATOR_YEAR_PROP = "cs345opolis.simulator.epochYear";
     public static final String SIMULATOR_MONTH_PROP = "cs345opolis.simulator.epochMonth";
     public static final String SIMULATOR_WEEK_PROP = "cs345opolis.simulator.epochWeek";
+    public static final String SIMULATOR_QUEUE_PROP = "cs345opolis.simulator.queue";
+    public static final String SIMULATOR_THREADS_PROP = "cs345opolis.simulator.threads";
+    public static final String SIMULATOR_STATS_PROP = "cs345opolis.simulator.stats";
+
+    /* Ranges of parallelFor smaller than this are run on the calling thread. */
+    private static final int PARALLEL_THRESHOLD = 256;
+
+    /* The shared pools, by number of threads. See poolFor. */
+    private static final Map<Integer, ForkJoinPool> POOLS = new HashMap<>();
+
+    /**
+     * Setting that determines the implementation of the action queue.
+     */
+    public enum QueueType {
+        WHEEL,  // bucketed timing wheel, the default
+        HEAP    // binary heap ordered by step, phase and sequence
+    }
 
     public static final int STEPS_PER_PERIOD = 8;
 
@@ -46,28 +90,74 @@ public class Simulator {
     // This is used as a tie-breaker for queue ordering.
     private int nextSequence = 0;
 
+    /**
+     * The phases of a step. Actions that prepare for a period run in
+     * PRE_PERIOD, updates of the game (such as zones) run in UPDATE, and
+     * actions that collect the results of a period run in POST_PERIOD.
+     */
+    public enum Phase {
+        PRE_PERIOD,
+        UPDATE,
+        POST_PERIOD
+    }
+
     /**
      * This is an entry in the timer queue. The entry contains the step
-     * when the action is to be executed, the sequence number of the action
-     * and the action itself.
+     * when the action is to be executed, the phase and sequence number of the
+     * action and the action itself.
+     *
+     * The entry also serves as the ActionHandle for the action. queued is
+     * true while the entry is in the queue and running is true while its
+     * action is being executed. cancelled is set when the action is cancelled
+     * or removed. A queue may leave a cancelled entry in place and discard it
+     * later.
      */
-    private static class QEntry {
+    static class QEntry implements ActionHandle {
         int atStep;
+        final Phase phase;
         int sequence;
         SimulatorAction action;
+        boolean queued;
+        boolean running;
+        boolean cancelled;
+        int resched; // Reschedule interval returned by the last execution
+
+        // Links used by queues that chain entries into lists
+        QEntry prev;
+        QEntry next;
 
-        QEntry(int atStep, int sequence, SimulatorAction action) {
+        QEntry(int atStep, Phase phase, int sequence, SimulatorAction action) {
             this.atStep = atStep;
+            this.phase = phase;
             this.sequence = sequence;
             this.action = action;
         }
+
+        @Override public SimulatorAction getAction() {
+            return action;
+        }
+
+        @Override public boolean isScheduled() {
+            return !cancelled && (queued || running);
+        }
     }
 
     /* The current step. Step zero is the first period on the epoch date. */
     private int curStep = 0;
 
-    /* The priority queue of all queued actions. */
-    private PriorityQueue<QEntry> queue;
+    /* The queue of all queued actions. */
+    private ActionQueue queue;
+
+    /* Parallel execution for parallelFor. threads is zero if the property
+     * is not set, pool is null unless threads > 1. */
+    private int threads = 0;
+    private ForkJoinPool pool = null;
+
+    /* Statistics. null when statistics are disabled. */
+    private StatsRecorder stats = null;
+
+    /* Run at the end of each step that is not skipped, or null. */
+    private Runnable stepEnd = null;
 
     /**
      * Create a simulator object.
@@ -76,17 +166,129 @@ public class Simulator {
      */
     Simulator(Properties props) {
         setStartTime(props);
-        queue = new PriorityQueue<>(
-                // Comparator for QEntrys
-                new Comparator<QEntry>() {
-                    @Override public int compare(QEntry obj1, QEntry obj2) {
-                        int stepDif = obj1.atStep - obj2.atStep;
-                        if (stepDif != 0)
-                            return stepDif;
-                        return obj1.sequence - obj2.sequence;
-                    }
-                }
-        );
+        QueueType queueType = QueueType.valueOf(
+                props.getProperty(SIMULATOR_QUEUE_PROP, "WHEEL"));
+        switch (queueType) {
+            case HEAP:
+                queue = new HeapQueue();
+                break;
+            case WHEEL:
+                queue = new TimingWheelQueue();
+                break;
+        }
+        String threadsProp = props.getProperty(SIMULATOR_THREADS_PROP);
+        if (threadsProp != null) {
+            threads = Integer.parseInt(threadsProp);
+            if (threads <= 0)
+                throw new IllegalArgumentException(SIMULATOR_THREADS_PROP + " must be > 0");
+            if (threads > 1)
+                pool = poolFor(threads);
+        }
+        setStatsEnabled(Boolean.parseBoolean(props.getProperty(SIMULATOR_STATS_PROP, "false")));
+    }
+
+    /* Construct a simulator like the original, see newLike. */
+    private Simulator(Simulator original) {
+        epochDate = original.epochDate;
+        startTime = original.startTime;
+        queue = original.queue instanceof HeapQueue ? new HeapQueue() : new TimingWheelQueue();
+        threads = original.threads;
+        pool = original.pool;
+        setCurrentStep(original.curStep);
+    }
+
+    /**
+     * Return a new simulator with the same start time, current step, queue
+     * type and thread pool as this one. The new simulator has no queued
+     * actions and does not record statistics. This is used when a game is
+     * forked.
+     * @return the new simulator
+     */
+    Simulator newLike() {
+        return new Simulator(this);
+    }
+
+    /* Return the shared pool with the given number of threads, creating it
+     * the first time. Its worker threads are daemon threads and end when
+     * they have been idle for a while, so the pools are never shut down. */
+    private static synchronized ForkJoinPool poolFor(int threads) {
+        return POOLS.computeIfAbsent(threads, ForkJoinPool::new);
+    }
+
+    /**
+     * Set an action to run at the end of each step, after all of the
+     * actions of the step. Steps skipped by advance, which have no actions,
+     * do not run it.
+     * @param stepEnd the action, or null for none
+     */
+    void setStepEnd(Runnable stepEnd) {
+        this.stepEnd = stepEnd;
+    }
+
+    /**
+     * Return the number of threads used by parallelFor. The
+     * value is zero if the property cs345opolis.simulator.threads is not set.
+     * @return the number of threads
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Order QEntrys by the step at which they are to be executed. Entries
+     * for the same step are ordered by phase, then by sequence number.
+     * @param obj1 the first entry
+     * @param obj2 the second entry
+     * @return negative, zero or positive as obj1 is before, equal or after obj2
+     */
+    static int compareEntries(QEntry obj1, QEntry obj2) {
+        int stepDif = obj1.atStep - obj2.atStep;
+        if (stepDif != 0)
+            return stepDif;
+        return compareWithinStep(obj1, obj2);
+    }
+
+    /**
+     * Order QEntrys for the same step by phase, then by sequence number.
+     * @param obj1 the first entry
+     * @param obj2 the second entry
+     * @return negative, zero or positive as obj1 is before, equal or after obj2
+     */
+    static int compareWithinStep(QEntry obj1, QEntry obj2) {
+        int phaseDif = obj1.phase.ordinal() - obj2.phase.ordinal();
+        if (phaseDif != 0)
+            return phaseDif;
+        return obj1.sequence - obj2.sequence;
+    }
+
+    /**
+     * Enable or disable recording of statistics. Enabling statistics when they
+     * are disabled starts with all counters at zero. Disabling statistics
+     * discards the counters.
+     * @param enabled true to record statistics
+     */
+    public void setStatsEnabled(boolean enabled) {
+        if (!enabled) {
+            stats = null;
+        } else if (stats == null) {
+            stats = new StatsRecorder();
+        }
+    }
+
+    /**
+     * Return true if statistics are being recorded.
+     * @return true if statistics are enabled
+     */
+    public boolean isStatsEnabled() {
+        return stats != null;
+    }
+
+    /**
+     * Return a snapshot of the statistics recorded so far.
+     * @return the statistics, or null if statistics are disabled
+     */
+    public SimulatorStats getStats() {
+        return stats == null ? null : new SimulatorStats(stats, queue.size());
     }
 
     /* Set the start time (epoch date) for the simulation. */
@@ -114,33 +316,153 @@ public class Simulator {
      * @return the current time
      */
     public SimulatorTime getCurrentTime() {
-        return SimulatorTime.getAbsoluteTime(epochDate, curStep);
+        return startTime.plusSteps(curStep);
+    }
+
+    /**
+     * Return the current step of the simulation. Step zero is the first step
+     * of the epoch date.
+     * @return the current step
+     */
+    public int getCurrentStep() {
+        return curStep;
+    }
+
+    /**
+     * Set the current step of a simulator that has no actions queued. This
+     * is used when restoring a saved game.
+     * @param step the new current step
+     */
+    void setCurrentStep(int step) {
+        if (queue.size() != 0)
+            throw new IllegalStateException("Simulator has queued actions");
+        curStep = step;
+        queue.advanceTo(step);
+    }
+
+    /**
+     * Move the simulation forward to the given step without running any
+     * actions. No action may be queued before the step. This is used by
+     * Cs345Opolis.fastForward after it has moved the queued actions.
+     * @param step the new current step
+     * @throws IllegalStateException if an action is queued before the step
+     */
+    void jumpTo(int step) {
+        if (step < curStep || queue.nextStep() < step)
+            throw new IllegalStateException("Actions are queued before step " + step);
+        if (step == curStep)
+            return;
+        if (stats != null)
+            stats.skippedSteps += step - curStep;
+        curStep = step;
+        queue.advanceTo(step);
+    }
+
+    /**
+     * Call the consumer for each queued entry, in no particular order.
+     * @param consumer the consumer
+     */
+    void forEachEntry(Consumer<QEntry> consumer) {
+        queue.forEach(consumer);
+    }
+
+    /**
+     * Return the next occurrence of the given step of a period after the
+     * current step. The value is the same as
+     * getCurrentTime().nextStep(stepNumber).diff(getStartTime()), but no
+     * objects are allocated.
+     * @param stepNumber the number of the step in a period
+     * @return the step
+     */
+    public int nextStep(int stepNumber) {
+        return SimulatorTime.nextStep(curStep, stepNumber, STEPS_PER_PERIOD);
     }
 
     /**
      * Add the given action to the simulation. The parameter time is the time
      * for the first execution of the action.
+     *
+     * The action is queued at step time.diff(getCurrentTime()), see
+     * addActionAt. Note that this difference is only the step of the given
+     * time while the simulation is at step zero. An action added later runs
+     * at the next step and repeatedly until it has caught up with the current
+     * step. The expected game output depends on this behavior.
      * @param time the time of the action
      * @param action the action to be executed
+     * @return a handle that can be used to cancel the action
+     */
+    public ActionHandle addAction(SimulatorTime time, SimulatorAction action) {
+        return addActionAt(time.diff(getCurrentTime()), action);
+    }
+
+    /**
+     * Add the given action to the simulation, queued at the given step in
+     * the UPDATE phase. See addActionAt(int, Phase, SimulatorAction).
+     * @param atStep the step at which the action is queued
+     * @param action the action to be executed
+     * @return a handle that can be used to cancel the action
+     */
+    public ActionHandle addActionAt(int atStep, SimulatorAction action) {
+        return addActionAt(atStep, Phase.UPDATE, action);
+    }
+
+    /**
+     * Add the given action to the simulation, queued at the given step in
+     * the given phase. The action stays in the phase when it is rescheduled.
+     * This is the primitive form of addAction. It does not allocate any
+     * objects other than the queue entry for the action.
+     * @param atStep the step at which the action is queued
+     * @param phase the phase in which the action runs
+     * @param action the action to be executed
+     * @return a handle that can be used to cancel the action
      */
-    public void addAction(SimulatorTime time, SimulatorAction action) {
-        int atStep = time.diff(getCurrentTime());
-        queue.add(new QEntry(atStep, nextSequence++, action));
+    public ActionHandle addActionAt(int atStep, Phase phase, SimulatorAction action) {
+        QEntry entry = new QEntry(atStep, phase, nextSequence++, action);
+        entry.queued = true;
+        queue.add(entry);
+        return entry;
     }
 
     /**
      * Remove the given action from the simulation. If the action occurs
      * multiple times in the simulation, only one occurrence will be
      * removed.
+     *
+     * This method searches the queue. Callers that hold the handle returned
+     * by addAction should use cancelAction instead.
      * @param action the action to be removed
      */
     public void removeAction(SimulatorAction action) {
-        for (Iterator<QEntry> iter = queue.iterator(); iter.hasNext();) {
-            QEntry entry = iter.next();
-            if (entry.action.equals(action)) {
-                iter.remove();
-                break;
-            }
+        QEntry entry = queue.remove(action);
+        if (entry != null) {
+            entry.queued = false;
+            entry.cancelled = true;
+            if (stats != null)
+                stats.removals++;
+        }
+    }
+
+    /**
+     * Cancel the action for the given handle. The action will not be executed
+     * again. If the action is currently executing, it will not be
+     * rescheduled. Cancelling an action that is no longer scheduled has no
+     * effect.
+     * @param handle the handle returned by addAction
+     * @throws IllegalArgumentException if the handle was not returned by a
+     *      Simulator
+     */
+    public void cancelAction(ActionHandle handle) {
+        if (!(handle instanceof QEntry))
+            throw new IllegalArgumentException("Not a simulator action handle");
+        QEntry entry = (QEntry) handle;
+        if (entry.cancelled)
+            return;
+        entry.cancelled = true;
+        if (entry.queued) {
+            entry.queued = false;
+            queue.cancel(entry);
+            if (stats != null)
+                stats.removals++;
         }
     }
 
@@ -149,16 +471,118 @@ public class Simulator {
      * are rescheduled if requested.
      */
     public void step() {
-        while (!queue.isEmpty() && queue.peek().atStep <= curStep) {
-            int size = queue.size();
-            QEntry entry = queue.poll();
-            assert queue.size() == size - 1;
-            int resched = entry.action.doAction();
-            if (resched > 0) {
-                entry.atStep += resched;
-                queue.add(entry);
+        long start = 0;
+        if (stats != null) {
+            stats.startStep();
+            start = System.nanoTime();
+        }
+        QEntry entry;
+        while ((entry = queue.poll()) != null) {
+            entry.queued = false;
+            if (stats == null) {
+                runEntry(entry);
+                reschedule(entry);
+            } else {
+                long actionStart = System.nanoTime();
+                runEntry(entry);
+                stats.action(entry.action.getClass(), System.nanoTime() - actionStart);
+                reschedule(entry);
             }
         }
         curStep++;
+        queue.advanceTo(curStep);
+        if (stepEnd != null)
+            stepEnd.run();
+        if (stats != null)
+            stats.endStep(System.nanoTime() - start, queue.size());
+    }
+
+    /**
+     * Advance the simulation the given number of steps. The result is the
+     * same as calling step() n times, but steps at which no actions are
+     * scheduled are skipped without any work.
+     * @param n the number of steps
+     */
+    public void advance(int n) {
+        int target = curStep + n;
+        while (curStep < target) {
+            int next = queue.nextStep();
+            if (next > curStep) {
+                int skipTo = Math.min(next, target);
+                if (stats != null)
+                    stats.skippedSteps += skipTo - curStep;
+                curStep = skipTo;
+                queue.advanceTo(curStep);
+            }
+            if (curStep < target) {
+                step();
+            }
+        }
+    }
+
+    /**
+     * Call body.accept(i) for each i with from <= i < to. If the simulator
+     * has a pool (the property cs345opolis.simulator.threads is more than
+     * one) and the range is large, the calls are made in parallel, so each
+     * call may only change state that belongs to its own index. Otherwise,
+     * the calls are made in order.
+     * @param from the first index
+     * @param to one more than the last index
+     * @param body the body called for each index
+     */
+    public void parallelFor(int from, int to, IntConsumer body) {
+        if (pool == null || to - from < PARALLEL_THRESHOLD) {
+            for (int i = from; i < to; i++) {
+                body.accept(i);
+            }
+        } else {
+            pool.invoke(new RangeTask(body, from, to));
+        }
+    }
+
+    /* Execute the action for an entry. */
+    private static void runEntry(QEntry entry) {
+        entry.running = true;
+        entry.resched = entry.action.doAction();
+        entry.running = false;
+    }
+
+    /* Return the entry to the queue if it is to be run again. */
+    private void reschedule(QEntry entry) {
+        if (entry.resched > 0 && !entry.cancelled) {
+            entry.atStep += entry.resched;
+            entry.queued = true;
+            queue.add(entry);
+            if (stats != null)
+                stats.reschedules++;
+        }
+    }
+
+    /**
+     * Fork/join task calling the body of a parallelFor for a range.
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IntConsumer body;
+        private final int from;
+        private final int to;
+
+        RangeTask(IntConsumer body, int from, int to) {
+            this.body = body;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override protected void compute() {
+            if (to - from <= PARALLEL_THRESHOLD / 2) {
+                for (int i = from; i < to; i++) {
+                    body.accept(i);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new RangeTask(body, from, mid), new RangeTask(body, mid, to));
+            }
+        }
     }
 }
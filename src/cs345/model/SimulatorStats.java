@@ -0,0 +1,82 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot of the statistics recorded by a Simulator.
+ *
+ * Statistics are only recorded while they are enabled, see
+ * Simulator.setStatsEnabled. All times are wall clock times in nanoseconds.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class SimulatorStats {
+
+    /**
+     * Execution statistics for one class of action.
+     */
+    public static class ActionStats {
+        public final String name; // Simple name of the action's class
+        public final long count; // Number of executions
+        public final long nanos; // Total execution time
+
+        ActionStats(String name, long count, long nanos) {
+            this.name = name;
+            this.count = count;
+            this.nanos = nanos;
+        }
+    }
+
+    public final long steps; // Number of steps executed
+    public final long skippedSteps; // Number of idle steps skipped by advance
+    public final long actions; // Number of actions executed
+    public final long reschedules; // Number of actions rescheduled
+    public final long removals; // Number of actions removed or cancelled
+    public final int queueDepth; // Current number of queued actions
+    public final int maxQueueDepth; // Largest queue depth at the end of a step
+    public final long totalNanos; // Total time of all steps
+    public final long maxStepNanos; // Time of the longest step
+    public final long lastStepNanos; // Time of the most recent step
+    public final int lastStepActions; // Actions executed by the most recent step
+
+    /** Per class statistics, in decreasing order of total time. */
+    public final List<ActionStats> byAction;
+
+    SimulatorStats(StatsRecorder rec, int queueDepth) {
+        this.steps = rec.steps;
+        this.skippedSteps = rec.skippedSteps;
+        this.actions = rec.actions;
+        this.reschedules = rec.reschedules;
+        this.removals = rec.removals;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = rec.maxQueueDepth;
+        this.totalNanos = rec.totalNanos;
+        this.maxStepNanos = rec.maxStepNanos;
+        this.lastStepNanos = rec.lastStepNanos;
+        this.lastStepActions = rec.lastStepActions;
+        List<ActionStats> list = new ArrayList<>();
+        for (Map.Entry<Class<?>, long[]> entry : rec.byClass.entrySet()) {
+            long[] counts = entry.getValue();
+            list.add(new ActionStats(entry.getKey().getSimpleName(), counts[0], counts[1]));
+        }
+        list.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+        this.byAction = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Return the average time of a step, in nanoseconds.
+     * @return the average time, zero if no steps have been executed
+     */
+    public long averageStepNanos() {
+        return steps == 0 ? 0 : totalNanos / steps;
+    }
+}
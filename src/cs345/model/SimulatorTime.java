@@ -13,6 +13,12 @@ package cs345.model;
  * steps per time period. A time period is one week. Months are exactly four
  * weeks and years are exactly twelve months
  *
+ * A SimulatorTime is an offset in steps from an epoch. Both are packed into a
+ * single long: the high half is the epoch as a count of steps from the start
+ * of year 0, the low half is the offset. The calendar date of a time is
+ * computed from the step count the first time it is needed and kept, since
+ * the time cannot change.
+ *
  * @author Chris Reedy (Chris.Reedy@wwu.edu)
  */
 public class SimulatorTime {
@@ -31,7 +37,19 @@ public class SimulatorTime {
      * Enumeration naming the months.
      */
     public enum Month {
-        JAN, FEB, MAR, APR, MAY, JUN, JUL, AUG, SEP, OCT, NOV, DEC
+        JAN, FEB, MAR, APR, MAY, JUN, JUL, AUG, SEP, OCT, NOV, DEC;
+
+        /* values() returns a new array on each call, so it is kept. */
+        private static final Month[] VALUES = values();
+
+        /**
+         * Return the month with the given ordinal, without allocating.
+         * @param ordinal the ordinal, 0 for JAN
+         * @return the month
+         */
+        public static Month of(int ordinal) {
+            return VALUES[ordinal];
+        }
     }
 
     /**
@@ -105,22 +123,44 @@ public class SimulatorTime {
          * @return the difference
          */
         public int diff(TimeData other) {
-            return STEPS_PER_PERIOD *
-                    (YEAR * (this.year - other.year) +
-                            MONTH * (this.month.ordinal() - other.month.ordinal()) +
-                            WEEK * (this.week - other.week)) +
-                    this.step - other.step;
+            return this.toSteps() - other.toSteps();
+        }
+
+        /* Return the number of steps from the start of year 0. */
+        int toSteps() {
+            return STEPS_PER_PERIOD * (YEAR * year + MONTH * month.ordinal() + WEEK * week) + step;
         }
     }
 
-    /* Simulator times are relative to an epoch. */
-    private final TimeData epoch;
-    private final int stepOffset;
+    /* The number of steps in a month and a year. */
+    private static final int STEPS_PER_MONTH = MONTH * STEPS_PER_PERIOD;
+    private static final int STEPS_PER_YEAR = YEAR * STEPS_PER_PERIOD;
+
+    /* Simulator times are relative to an epoch. The epoch, in steps from
+     * the start of year 0, and the offset from it are packed into one long. */
+    private final long packed;
+
+    /* The calendar date of the time, computed when first needed. */
+    private TimeData timeData = null;
 
     /* private constructor. See factory functions getAbsoluteTime, nextStep. */
-    private SimulatorTime(TimeData epoch, int stepOffset) {
-        this.epoch = epoch;
-        this.stepOffset = stepOffset;
+    private SimulatorTime(int epochSteps, int stepOffset) {
+        this.packed = ((long) epochSteps << 32) | (stepOffset & 0xFFFFFFFFL);
+    }
+
+    /* The epoch, in steps from the start of year 0. */
+    private int epochSteps() {
+        return (int) (packed >> 32);
+    }
+
+    /* The offset from the epoch. */
+    private int stepOffset() {
+        return (int) packed;
+    }
+
+    /* The time, in steps from the start of year 0. */
+    private int steps() {
+        return epochSteps() + stepOffset();
     }
 
     /** Convert a SimulatorTime to a String. */
@@ -136,7 +176,7 @@ public class SimulatorTime {
         if (!(other instanceof SimulatorTime))
             return false;
         SimulatorTime otherTime = (SimulatorTime)other;
-        return this.diff(otherTime) == 0;
+        return this.steps() == otherTime.steps();
     }
 
     /**
@@ -144,7 +184,7 @@ public class SimulatorTime {
      * @return the hash code
      */
     @Override public int hashCode() {
-        return epoch.hashCode() * 31 + stepOffset;
+        return steps();
     }
 
     /**
@@ -158,12 +198,18 @@ public class SimulatorTime {
      * @return the time object
      */
     public static SimulatorTime getAbsoluteTime(TimeData epoch, int stepOffset) {
-        int offset = epoch.step % STEPS_PER_PERIOD;
-        if (offset != 0) {
-            epoch = new TimeData(epoch.year, epoch.month, epoch.week,
-                    epoch.step - offset);
-        }
-        return new SimulatorTime(epoch, stepOffset);
+        return new SimulatorTime(epoch.toSteps() - epoch.step % STEPS_PER_PERIOD, stepOffset);
+    }
+
+    /**
+     * Get the Simulator time the given number of steps after this time, with
+     * the same epoch. This is cheaper than getAbsoluteTime, which must convert
+     * the epoch to steps.
+     * @param steps the number of steps
+     * @return the time
+     */
+    public SimulatorTime plusSteps(int steps) {
+        return new SimulatorTime(epochSteps(), stepOffset() + steps);
     }
 
     /**
@@ -186,14 +232,28 @@ public class SimulatorTime {
      * @return the time
      */
     public SimulatorTime nextStep(int stepNumber, int modulus) {
+        return new SimulatorTime(epochSteps(), nextStep(stepOffset(), stepNumber, modulus));
+    }
+
+    /**
+     * Compute the step offset of the next occurrence of stepNumber at the
+     * given modulus after the offset stepOffset. This is the arithmetic
+     * behind nextStep, available without constructing SimulatorTime objects.
+     *
+     * @param stepOffset the offset to start from
+     * @param stepNumber the number of the step in a period
+     * @param modulus the modulus
+     * @return the offset of the next occurrence
+     */
+    static int nextStep(int stepOffset, int stepNumber, int modulus) {
         if (modulus <= 0 || stepNumber <= 0)
             throw new IllegalArgumentException("modulus and stepNumber must be > 0");
         stepNumber = stepNumber % modulus;
         int curModulus = stepOffset % modulus;
-            int newOffset = stepOffset + stepNumber - curModulus;
+        int newOffset = stepOffset + stepNumber - curModulus;
         if (curModulus >= stepNumber)
             newOffset += modulus;
-        return new SimulatorTime(epoch, newOffset);
+        return newOffset;
     }
 
     /**
@@ -202,7 +262,7 @@ public class SimulatorTime {
      * @return difference
      */
     public int diff(SimulatorTime other) {
-        return this.epoch.diff(other.epoch) + this.stepOffset - other.stepOffset;
+        return this.steps() - other.steps();
     }
 
     /**
@@ -210,13 +270,18 @@ public class SimulatorTime {
      * @return The time data object.
      */
     public TimeData getTimeData() {
-        int totalStep = epoch.step + stepOffset;
-        int step = totalStep % STEPS_PER_PERIOD;
-        int totalWeek = epoch.week + totalStep / STEPS_PER_PERIOD;
-        int week = totalWeek % WEEKS_PER_MONTH;
-        int totalMonth = epoch.month.ordinal() + totalWeek / WEEKS_PER_MONTH;
-        Month month = Month.values()[totalMonth % MONTHS_PER_YEAR];
-        int year = epoch.year + totalMonth / MONTHS_PER_YEAR;
-        return new TimeData(year, month, week, step);
+        TimeData result = timeData;
+        if (result == null) {
+            // TimeData is immutable, so it can be shared by threads
+            int steps = steps();
+            int year = Math.floorDiv(steps, STEPS_PER_YEAR);
+            int inYear = steps - year * STEPS_PER_YEAR;
+            Month month = Month.of(inYear / STEPS_PER_MONTH);
+            int inMonth = inYear % STEPS_PER_MONTH;
+            result = new TimeData(year, month, inMonth / STEPS_PER_PERIOD,
+                    inMonth % STEPS_PER_PERIOD);
+            timeData = result;
+        }
+        return result;
     }
 }
@@ -0,0 +1,63 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The counters behind SimulatorStats. A Simulator only has a recorder while
+ * statistics are enabled, so the cost when they are disabled is a null check.
+ *
+ * The recorder is only used from the thread that calls step.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class StatsRecorder {
+
+    long steps;
+    long skippedSteps;
+    long actions;
+    long reschedules;
+    long removals;
+    int maxQueueDepth;
+    long totalNanos;
+    long maxStepNanos;
+    long lastStepNanos;
+    int lastStepActions;
+    private long stepStartActions; // Value of actions at the start of the step
+
+    // Execution count and total time for each class of action
+    final Map<Class<?>, long[]> byClass = new HashMap<>();
+
+    /* Record the execution of an action of the given class. */
+    void action(Class<?> actionClass, long nanos) {
+        long[] counts = byClass.get(actionClass);
+        if (counts == null) {
+            counts = new long[2];
+            byClass.put(actionClass, counts);
+        }
+        counts[0]++;
+        counts[1] += nanos;
+        actions++;
+    }
+
+    /* Record the start of a step. */
+    void startStep() {
+        stepStartActions = actions;
+    }
+
+    /* Record the end of a step. */
+    void endStep(long nanos, int queueDepth) {
+        steps++;
+        totalNanos += nanos;
+        lastStepNanos = nanos;
+        maxStepNanos = Math.max(maxStepNanos, nanos);
+        lastStepActions = (int) (actions - stepStartActions);
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+    }
+}
@@ -0,0 +1,241 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model;
+
+import java.util.Iterator;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+
+/**
+ * An ActionQueue implemented as a timing wheel.
+ *
+ * The wheel is a circular array of buckets, one per step, covering the next
+ * WHEEL_SIZE steps starting at the current step. Each bucket is a doubly
+ * linked list of entries kept in phase and sequence order. Since actions are almost
+ * always rescheduled a fixed number of steps ahead, an entry is nearly always
+ * appended to the end of its bucket, so adding and polling are O(1).
+ *
+ * Entries due beyond the end of the wheel are held in an overflow heap and
+ * moved into the wheel as the current step advances. Entries added for a
+ * step that has already passed are held in a heap of late entries, which are
+ * returned before the entries of the current step. This matches the ordering
+ * of HeapQueue exactly.
+ *
+ * A bitmap of the non-empty buckets allows the next step with an entry to be
+ * found without visiting the empty buckets.
+ *
+ * A cancelled entry in the wheel is unlinked from its bucket immediately. A
+ * cancelled entry in one of the heaps is left in place and discarded when it
+ * reaches the head of the heap.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class TimingWheelQueue implements ActionQueue {
+
+    /** Number of steps covered by the wheel. Must be a power of two. */
+    static final int WHEEL_SIZE = 256;
+    private static final int WHEEL_MASK = WHEEL_SIZE - 1;
+
+    private final Simulator.QEntry[] heads = new Simulator.QEntry[WHEEL_SIZE];
+    private final Simulator.QEntry[] tails = new Simulator.QEntry[WHEEL_SIZE];
+
+    // Bit set for each non-empty bucket
+    private final long[] occupied = new long[WHEEL_SIZE / 64];
+
+    // Entries due before the current step
+    private final PriorityQueue<Simulator.QEntry> late =
+            new PriorityQueue<>(Simulator::compareEntries);
+
+    // Entries due at or after curStep + WHEEL_SIZE
+    private final PriorityQueue<Simulator.QEntry> overflow =
+            new PriorityQueue<>(Simulator::compareEntries);
+
+    private int curStep = 0;
+    private int size = 0; // Number of entries, not counting cancelled ones
+
+    @Override public void add(Simulator.QEntry entry) {
+        if (entry.atStep < curStep) {
+            late.add(entry);
+        } else if (entry.atStep - curStep >= WHEEL_SIZE) {
+            overflow.add(entry);
+        } else {
+            addToBucket(entry);
+        }
+        size++;
+    }
+
+    /* Insert the entry into its bucket, keeping the bucket in phase and
+     * sequence order. */
+    private void addToBucket(Simulator.QEntry entry) {
+        int slot = entry.atStep & WHEEL_MASK;
+        Simulator.QEntry after = tails[slot];
+        while (after != null && Simulator.compareWithinStep(after, entry) > 0) {
+            after = after.prev;
+        }
+        entry.prev = after;
+        if (after == null) {
+            entry.next = heads[slot];
+            heads[slot] = entry;
+            occupied[slot >>> 6] |= 1L << slot;
+        } else {
+            entry.next = after.next;
+            after.next = entry;
+        }
+        if (entry.next == null) {
+            tails[slot] = entry;
+        } else {
+            entry.next.prev = entry;
+        }
+    }
+
+    /* Remove the entry from its bucket. */
+    private void unlink(Simulator.QEntry entry) {
+        int slot = entry.atStep & WHEEL_MASK;
+        if (entry.prev == null) {
+            heads[slot] = entry.next;
+            if (entry.next == null)
+                occupied[slot >>> 6] &= ~(1L << slot);
+        } else {
+            entry.prev.next = entry.next;
+        }
+        if (entry.next == null) {
+            tails[slot] = entry.prev;
+        } else {
+            entry.next.prev = entry.prev;
+        }
+        entry.prev = null;
+        entry.next = null;
+    }
+
+    /* Return true if the entry is held in a bucket of the wheel. */
+    private boolean inWheel(Simulator.QEntry entry) {
+        return entry.atStep >= curStep && entry.atStep - curStep < WHEEL_SIZE;
+    }
+
+    /* Discard cancelled entries from the head of the given heap. */
+    private static void purge(PriorityQueue<Simulator.QEntry> heap) {
+        while (!heap.isEmpty() && heap.peek().cancelled) {
+            heap.poll();
+        }
+    }
+
+    @Override public Simulator.QEntry poll() {
+        Simulator.QEntry entry;
+        purge(late);
+        if (!late.isEmpty()) {
+            entry = late.poll();
+        } else {
+            entry = heads[curStep & WHEEL_MASK];
+            if (entry == null)
+                return null;
+            unlink(entry);
+        }
+        size--;
+        return entry;
+    }
+
+    @Override public Simulator.QEntry peek() {
+        purge(late);
+        if (!late.isEmpty())
+            return late.peek();
+        return heads[curStep & WHEEL_MASK];
+    }
+
+    @Override public int nextStep() {
+        purge(late);
+        if (!late.isEmpty())
+            return late.peek().atStep;
+        int slot = nextOccupied(curStep & WHEEL_MASK);
+        if (slot >= 0)
+            return curStep + ((slot - curStep) & WHEEL_MASK);
+        purge(overflow);
+        return overflow.isEmpty() ? Integer.MAX_VALUE : overflow.peek().atStep;
+    }
+
+    /* Return the first non-empty bucket at or after the given slot, wrapping
+     * around the end of the wheel, or -1 if all buckets are empty. */
+    private int nextOccupied(int slot) {
+        int word = slot >>> 6;
+        long bits = occupied[word] & (-1L << slot);
+        for (int i = 0; i <= occupied.length; i++) {
+            if (bits != 0)
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            word = (word + 1) % occupied.length;
+            bits = occupied[word];
+        }
+        return -1;
+    }
+
+    @Override public Simulator.QEntry remove(SimulatorAction action) {
+        Simulator.QEntry entry = removeFrom(late, action);
+        if (entry == null)
+            entry = removeFrom(overflow, action);
+        for (int slot = 0; entry == null && slot < WHEEL_SIZE; slot++) {
+            for (Simulator.QEntry e = heads[slot]; e != null; e = e.next) {
+                if (e.action.equals(action)) {
+                    unlink(e);
+                    entry = e;
+                    break;
+                }
+            }
+        }
+        if (entry != null)
+            size--;
+        return entry;
+    }
+
+    /* Remove one entry for action from the given heap. */
+    private static Simulator.QEntry removeFrom(PriorityQueue<Simulator.QEntry> heap,
+                                               SimulatorAction action) {
+        for (Iterator<Simulator.QEntry> iter = heap.iterator(); iter.hasNext();) {
+            Simulator.QEntry entry = iter.next();
+            if (!entry.cancelled && entry.action.equals(action)) {
+                iter.remove();
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    @Override public void cancel(Simulator.QEntry entry) {
+        if (inWheel(entry))
+            unlink(entry);
+        size--;
+    }
+
+    @Override public void forEach(Consumer<Simulator.QEntry> consumer) {
+        for (Simulator.QEntry entry : late) {
+            if (!entry.cancelled)
+                consumer.accept(entry);
+        }
+        for (Simulator.QEntry head : heads) {
+            for (Simulator.QEntry entry = head; entry != null; entry = entry.next) {
+                consumer.accept(entry);
+            }
+        }
+        for (Simulator.QEntry entry : overflow) {
+            if (!entry.cancelled)
+                consumer.accept(entry);
+        }
+    }
+
+    @Override public void advanceTo(int step) {
+        assert step >= curStep && heads[curStep & WHEEL_MASK] == null;
+        purge(late);
+        assert late.isEmpty();
+        curStep = step;
+        purge(overflow);
+        while (!overflow.isEmpty() && overflow.peek().atStep - curStep < WHEEL_SIZE) {
+            addToBucket(overflow.poll());
+            purge(overflow);
+        }
+    }
+
+    @Override public int size() {
+        return size;
+    }
+}
@@ -7,6 +7,7 @@
 package cs345.model.cell;
 
 import cs345.model.Cell;
+import cs345.model.Cs345Opolis;
 
 /**
  * Cell for dirt.
@@ -36,7 +37,7 @@ public class Dirt implements Cell {
         return true;
     }
 
-    @Override public void bulldoze() {
+    @Override public void bulldoze(Cs345Opolis game) {
         // Nothing to do
     }
 }
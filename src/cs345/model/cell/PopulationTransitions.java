@@ -0,0 +1,152 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model.cell;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The distribution of the population of a residential zone after a number
+ * of weekly updates.
+ *
+ * The weekly update of a zone (see ResidentialSystem) is a Markov chain on
+ * the population. A zone starting at a population of at most MAX_POPULATION
+ * never goes above it, so the chain has MAX_POPULATION + 1 states. The
+ * transition matrix for one update is built from the update rule, and the
+ * matrix for k updates is its k-th power.
+ *
+ * The matrices are kept as cumulative distributions, so a population can be
+ * sampled with one random number and a binary search. They are cached for
+ * each number of updates, and may be used by several games at once.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class PopulationTransitions {
+
+    /** The largest population reachable from a population of 0. */
+    static final int MAX_POPULATION = 61;
+
+    private static final int STATES = MAX_POPULATION + 1;
+
+    /* The transition matrix for one update. */
+    private static final double[][] WEEK = weekMatrix();
+
+    /* Cumulative transition matrices, by number of updates. */
+    private static final Map<Integer, double[][]> CUMULATIVE = new ConcurrentHashMap<>();
+
+    /* Constructor is not used. */
+    private PopulationTransitions() { }
+
+    /**
+     * Return the cumulative transition matrix for the given number of
+     * updates. Row i is the cumulative distribution of the population after
+     * the updates of a zone with population i.
+     * @param updates the number of updates, > 0
+     * @return the matrix
+     */
+    static double[][] forUpdates(int updates) {
+        return CUMULATIVE.computeIfAbsent(updates, PopulationTransitions::cumulative);
+    }
+
+    /**
+     * Sample a population from a row of a cumulative transition matrix.
+     * @param row the row
+     * @param u a uniform random number, 0 <= u < 1
+     * @return the population
+     */
+    static int sample(double[] row, double u) {
+        int low = 0;
+        int high = STATES - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (row[mid] > u) {
+                high = mid;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return low;
+    }
+
+    /* Build the transition matrix for one update. This follows
+     * ResidentialSystem.update: 1 in 8 updates pick a desired population
+     * 20 .. 59 and move toward it by 1 .. 3. */
+    private static double[][] weekMatrix() {
+        double[][] matrix = new double[STATES][STATES];
+        for (int pop = 0; pop < STATES; pop++) {
+            matrix[pop][pop] += 7.0 / 8;
+            for (int desired = 20; desired < 60; desired++) {
+                double p = 1.0 / 8 / 40;
+                if (pop == desired) {
+                    matrix[pop][pop] += p;
+                }
+                for (int change = 1; change <= 3; change++) {
+                    if (pop < desired) {
+                        matrix[pop][pop + change] += p / 3;
+                    } else if (pop > desired) {
+                        matrix[pop][Math.max(0, pop - change)] += p / 3;
+                    }
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /* Build the cumulative matrix for the given number of updates. */
+    private static double[][] cumulative(int updates) {
+        double[][] result = power(updates);
+        for (double[] row : result) {
+            double sum = 0;
+            for (int j = 0; j < STATES; j++) {
+                sum += row[j];
+                row[j] = sum;
+            }
+            for (int j = 0; j < STATES; j++) {
+                row[j] /= sum;
+            }
+            row[STATES - 1] = 1.0;
+        }
+        return result;
+    }
+
+    /* Return WEEK to the given power, by repeated squaring. */
+    private static double[][] power(int updates) {
+        double[][] result = null;
+        double[][] square = WEEK;
+        while (updates > 0) {
+            if ((updates & 1) != 0)
+                result = result == null ? copy(square) : multiply(result, square);
+            updates >>>= 1;
+            if (updates > 0)
+                square = multiply(square, square);
+        }
+        return result;
+    }
+
+    private static double[][] multiply(double[][] a, double[][] b) {
+        double[][] result = new double[STATES][STATES];
+        for (int i = 0; i < STATES; i++) {
+            for (int k = 0; k < STATES; k++) {
+                double aik = a[i][k];
+                if (aik != 0) {
+                    for (int j = 0; j < STATES; j++) {
+                        result[i][j] += aik * b[k][j];
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static double[][] copy(double[][] matrix) {
+        double[][] result = new double[STATES][];
+        for (int i = 0; i < STATES; i++) {
+            result[i] = matrix[i].clone();
+        }
+        return result;
+    }
+}
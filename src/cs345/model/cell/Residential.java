@@ -8,25 +8,29 @@ package cs345.model.cell;
 
 import cs345.model.*;
 
+import java.util.Random;
+
 /**
  * A cell representing a Residential zone.
  *
  * A residential zone is a 3x3 grid of cells. All cell in the zone reference
  * the same residential zone instance.
  *
- * A residential zone implements SimulatorAction. This allows the zone to
- * update its attributes every period.
+ * The state of the zone is kept by the game's ResidentialSystem, which also
+ * does the update of the zone every period. A residential zone only holds
+ * the slot of the zone in the system and its center, so the same zone can be
+ * a cell of a game and of its forks (see Cs345Opolis.fork). The population
+ * of a zone is returned by ResidentialSystem.getPopulation.
  *
  * Residential zones have CellType RESIDENTIAL and are bulldozeable but not
  * buildable.
  *
  * @author Chris Reedy (Chris.Reedy@wwu.edu)
  */
-public class Residential extends Zone implements SimulatorAction {
+public class Residential extends Zone {
 
-    private Cs345Opolis parent; // The associated game for this zone
-    private GridLocation center; // The center location of the zone
-    private int population; // The population of the zone
+    private final GridLocation center; // The center location of the zone
+    final int slot; // The slot of the zone in the residential system
 
     /**
      * Construct a new residential zone.
@@ -34,11 +38,27 @@ public class Residential extends Zone implements SimulatorAction {
      * @param loc the GridLocation of the center of the zone
      */
     public Residential(Cs345Opolis parent, GridLocation loc) {
-        this.parent = parent;
+        // Queued at the same step as
+        // addAction(getCurrentTime().nextStep(1), this), without allocating
+        // SimulatorTime objects
+        this(parent, loc, 0, parent.actionPrng(),
+                parent.nextStep(1) - parent.getCurrentStep());
+    }
+
+    /**
+     * Restore a residential zone from a saved game. The zone is placed in the
+     * grid and its update is queued at the given step.
+     * @param parent The parent game
+     * @param loc the GridLocation of the center of the zone
+     * @param population the population of the zone
+     * @param prng the random number generator for the zone's updates
+     * @param atStep the queue step of the next update
+     */
+    public Residential(Cs345Opolis parent, GridLocation loc, int population,
+                       Random prng, int atStep) {
         this.center = loc;
-        this.population = 0;
-        placeZoneInGrid(this);
-        scheduleUpdate();
+        this.slot = parent.getResidentialSystem().add(this, population, prng, atStep);
+        placeZoneInGrid(parent.getGrid(), this);
     }
 
     @Override public CellType getCellType() {
@@ -50,72 +70,27 @@ public class Residential extends Zone implements SimulatorAction {
         }
 
     /**
-     * Return the population for this zone. The population is changed by
-     * the doAction method which is called once every period.
-     * @return the population
+     * Return the location of the center of the zone.
+     * @return the center
      */
-    public int getPopulation() {
-        return population;
+    public GridLocation getCenter() {
+        return center;
     }
 
     /* Place the given cell is all cells of the zones grid. */
-    private void placeZoneInGrid(Cell cell) {
-        Grid grid = parent.getGrid();
-        for (int col = center.x - 1; col <= center.x + 1; col++) {
-            for (int row = center.y - 1; row <= center.y + 1; row ++) {
-                grid.setCellAt(col, row, cell);
-            }
-        }
+    private void placeZoneInGrid(Grid grid, Cell cell) {
+        grid.fillRect(new GridRectangle(center.x - 1, center.y - 1, 3, 3), cell);
     }
 
     /**
      * Bulldoze the zone.
      *
      * When any cell of the zone is bulldozed, the entire zone is bulldozed.
+     * @param game the game the zone is bulldozed in
      */
     @Override
-    public void bulldoze() {
-        unscheduleUpdate();
-        placeZoneInGrid(CellConstants.DIRT);
-    }
-
-    /* Schedule the cell with the simulator. */
-    private void scheduleUpdate() {
-        parent.addAction(parent.getCurrentTime().nextStep(1), this);
-    }
-
-    /* Unschedule the cell when the zone is bulldozed. */
-    private void unscheduleUpdate() {
-        parent.removeAction(this);
-    }
-
-    /**
-     * Do the periodic update for the zone.
-     *
-     * The periodic update adjust the population toward the desired population.
-     *
-     * The action will be rescheduled for the next PERIOD.
-     * @return Simulator.STEPS_PER_PERIOD
-     */
-    @Override
-    public int doAction() {
-        // Do we want to adjust the population
-        if (parent.prngNextInt(8) == 0) {
-            // 1 in every 8 cycles (random) adjust population
-            // Get a random number 20 .. 60. If we're less than that, add
-            // people. If we're more than that, subtract.
-            int desired = parent.prngNextInt(40) + 20;
-            if (population < desired) {
-                population += parent.prngNextInt(3) + 1;
-            } else if (population > desired) {
-                population = Math.max(0, population - (parent.prngNextInt(3) + 1));
-            }
-        }
-
-        // Update total population in parent
-        parent.newResPop += population;
-
-        // Reschedule for next week
-        return SimulatorTime.WEEK * Simulator.STEPS_PER_PERIOD;
+    public void bulldoze(Cs345Opolis game) {
+        if (game.getResidentialSystem().remove(this))
+            placeZoneInGrid(game.getGrid(), CellConstants.DIRT);
     }
 }
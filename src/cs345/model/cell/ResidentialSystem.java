@@ -0,0 +1,500 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model.cell;
+
+import cs345.model.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+/**
+ * The state and periodic update of all the residential zones of a game.
+ *
+ * The state of the zones is kept in columns: arrays indexed by a slot
+ * number, one slot for each zone. The Residential cells in the grid are
+ * views of a slot.
+ *
+ * The system of a fork of a game is a copy of the system of the game, with
+ * the zones in the same slots. So, a zone of the game is also a zone of the
+ * fork, with its own state in each system.
+ *
+ * Zones are not individual actions of the simulator. Instead, the zones whose
+ * updates are due at the same step form a cohort, and a cohort is a single
+ * action that updates all of its zones in one loop. A cohort runs its zones
+ * in the order they were created, and when the cohort is rescheduled to the
+ * step of another cohort the two are merged. So, the zones are updated at the
+ * same steps, and in the same order, as when each zone was its own action,
+ * and the results of the game are the same.
+ *
+ * A bulldozed zone is marked as not live. The slot is removed from its cohort
+ * and made free for a new zone the next time the cohort runs.
+ *
+ * The centers of the live zones are kept in a ZoneIndex, so the zones in a
+ * rectangle, their number, the zone nearest a location and the zone with a
+ * given center are found without reading the grid.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class ResidentialSystem {
+
+    /* The interval between the updates of a zone. */
+    private static final int UPDATE_INTERVAL = SimulatorTime.WEEK * Simulator.STEPS_PER_PERIOD;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * Receives the state of each zone from forEachZone.
+     */
+    public interface ZoneVisitor {
+        /**
+         * Visit a zone.
+         * @param x the x coordinate of the center of the zone
+         * @param y the y coordinate of the center of the zone
+         * @param population the population of the zone
+         * @param prng the random number generator for the zone's updates
+         * @param atStep the queue step of the next update of the zone
+         * @param sequence the creation order of the zone
+         */
+        void visit(int x, int y, int population, Random prng, int atStep, int sequence);
+    }
+
+    private final Cs345Opolis parent; // The associated game
+
+    /* The columns. A slot is in use if it is not in the free list. */
+    private int[] centerX = new int[INITIAL_CAPACITY];
+    private int[] centerY = new int[INITIAL_CAPACITY];
+    private int[] population = new int[INITIAL_CAPACITY];
+    private int[] sequence = new int[INITIAL_CAPACITY];
+    private Random[] prngs = new Random[INITIAL_CAPACITY];
+    private boolean[] live = new boolean[INITIAL_CAPACITY];
+    private Residential[] zones = new Residential[INITIAL_CAPACITY];
+
+    private int slotCount = 0; // Slots that have been used
+    private int[] free = new int[INITIAL_CAPACITY]; // Free slots
+    private int freeCount = 0;
+    private int nextSequence = 0;
+    private int zoneCount = 0; // Live zones
+    private ZoneIndex index = new ZoneIndex(); // The centers of the live zones
+
+    /* The cohorts, at most one for each step. There are few cohorts, about
+     * one for each step of the update interval, so a list is searched. */
+    private final List<ZoneCohort> cohorts = new ArrayList<>();
+
+    /**
+     * Create the residential system for a game.
+     * @param parent the game
+     */
+    public ResidentialSystem(Cs345Opolis parent) {
+        this.parent = parent;
+    }
+
+    /* Construct a copy of a system for a fork of its game. */
+    private ResidentialSystem(ResidentialSystem original, Cs345Opolis parent) {
+        this.parent = parent;
+        centerX = original.centerX.clone();
+        centerY = original.centerY.clone();
+        population = original.population.clone();
+        sequence = original.sequence.clone();
+        prngs = original.prngs.clone();
+        live = original.live.clone();
+        zones = original.zones.clone();
+        slotCount = original.slotCount;
+        free = original.free.clone();
+        freeCount = original.freeCount;
+        nextSequence = original.nextSequence;
+        zoneCount = original.zoneCount;
+        index = original.index.copy();
+    }
+
+    /**
+     * Return a copy of this system for a fork of the game. The cohorts of the
+     * copy are queued in the simulator of the fork at the same steps as the
+     * cohorts of this system.
+     *
+     * Zones that use the generator gamePrng use forkPrng in the copy. The
+     * generators of other zones are copied.
+     * @param fork the fork of the game
+     * @param gamePrng the random number generator of the game
+     * @param forkPrng the random number generator of the fork
+     * @return the copy
+     */
+    public ResidentialSystem copyFor(Cs345Opolis fork, Random gamePrng, Random forkPrng) {
+        ResidentialSystem copy = new ResidentialSystem(this, fork);
+        int ownCount = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot] && prngs[slot] != gamePrng)
+                ownCount++;
+        }
+        Random[] own = new Random[ownCount];
+        ownCount = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot] && prngs[slot] != gamePrng)
+                own[ownCount++] = prngs[slot];
+        }
+        own = Cs345Opolis.copyRandoms(own);
+        ownCount = 0;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (live[slot])
+                copy.prngs[slot] = prngs[slot] == gamePrng ? forkPrng : own[ownCount++];
+        }
+
+        for (ZoneCohort cohort : cohorts) {
+            ZoneCohort copied = copy.new ZoneCohort(cohort.atStep);
+            copied.slots = Arrays.copyOf(cohort.slots, Math.max(INITIAL_CAPACITY, cohort.size));
+            copied.size = cohort.size;
+            copy.cohorts.add(copied);
+            copied.handle = fork.addActionAt(copied.atStep, copied);
+        }
+        return copy;
+    }
+
+    /**
+     * Return the number of live zones.
+     * @return the number of zones
+     */
+    public int getZoneCount() {
+        return zoneCount;
+    }
+
+    /**
+     * Return the zone with the given center.
+     * @param center the center
+     * @return the zone, or null if no live zone has that center
+     */
+    public Residential zoneAt(GridLocation center) {
+        int slot = index.slotAt(center.x, center.y);
+        return slot < 0 ? null : zones[slot];
+    }
+
+    /**
+     * Return the zones whose centers are in a rectangle, in no particular
+     * order.
+     * @param rect the rectangle, which may extend outside the grid
+     * @return the zones
+     */
+    public List<Residential> zonesIn(GridRectangle rect) {
+        List<Residential> result = new ArrayList<>();
+        index.forEachIn(rect, slot -> result.add(zones[slot]));
+        return result;
+    }
+
+    /**
+     * Return the number of zones whose centers are in a rectangle.
+     * @param rect the rectangle, which may extend outside the grid
+     * @return the number of zones
+     */
+    public int countZonesIn(GridRectangle rect) {
+        return index.countIn(rect);
+    }
+
+    /**
+     * Return the zone whose center is nearest to a location. Of zones at the
+     * same distance, the one with the smallest y, then x, is returned.
+     * @param loc the location
+     * @return the zone, or null if there are no zones
+     */
+    public Residential nearestZone(GridLocation loc) {
+        int slot = index.nearest(loc.x, loc.y);
+        return slot < 0 ? null : zones[slot];
+    }
+
+    /**
+     * Return true if the action is one of the updates of this system.
+     * @param action the action
+     * @return true if the action is a cohort of this system
+     */
+    public boolean isUpdateAction(SimulatorAction action) {
+        return action instanceof ZoneCohort && ((ZoneCohort) action).system() == this;
+    }
+
+    /**
+     * Call the visitor for each live zone. The zones of a cohort are visited
+     * together, in the order they are updated.
+     * @param visitor the visitor
+     */
+    public void forEachZone(ZoneVisitor visitor) {
+        for (ZoneCohort cohort : cohorts) {
+            for (int i = 0; i < cohort.size; i++) {
+                int slot = cohort.slots[i];
+                if (live[slot]) {
+                    visitor.visit(centerX[slot], centerY[slot], population[slot],
+                            prngs[slot], cohort.atStep, sequence[slot]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Return the population of a zone.
+     * @param zone the zone
+     * @return the population, 0 if the zone is not a zone of this system
+     */
+    public int getPopulation(Residential zone) {
+        int slot = zone.slot;
+        return slot < slotCount && zones[slot] == zone && live[slot] ? population[slot] : 0;
+    }
+
+    /**
+     * Add a zone. The first update of the zone is queued at the given step.
+     * @return the slot of the zone
+     */
+    int add(Residential zone, int pop, Random prng, int atStep) {
+        int slot = freeCount > 0 ? free[--freeCount] : newSlot();
+        centerX[slot] = zone.getCenter().x;
+        centerY[slot] = zone.getCenter().y;
+        zones[slot] = zone;
+        population[slot] = pop;
+        sequence[slot] = nextSequence++;
+        prngs[slot] = prng;
+        live[slot] = true;
+        zoneCount++;
+        index.add(slot, centerX[slot], centerY[slot]);
+
+        // The new zone has the largest sequence number, so it is the last
+        // zone of its cohort
+        ZoneCohort cohort = cohortAt(atStep);
+        if (cohort == null) {
+            cohort = new ZoneCohort(atStep);
+            cohorts.add(cohort);
+            cohort.handle = parent.addActionAt(atStep, cohort);
+        }
+        cohort.append(slot);
+        return slot;
+    }
+
+    /* Return an unused slot, growing the columns if they are full. */
+    private int newSlot() {
+        if (slotCount == population.length) {
+            int capacity = 2 * slotCount;
+            centerX = Arrays.copyOf(centerX, capacity);
+            centerY = Arrays.copyOf(centerY, capacity);
+            population = Arrays.copyOf(population, capacity);
+            sequence = Arrays.copyOf(sequence, capacity);
+            prngs = Arrays.copyOf(prngs, capacity);
+            live = Arrays.copyOf(live, capacity);
+            zones = Arrays.copyOf(zones, capacity);
+        }
+        return slotCount++;
+    }
+
+    /**
+     * Remove a zone.
+     * @return true if the zone was removed, false if it is not a zone of
+     *      this system
+     */
+    boolean remove(Residential zone) {
+        int slot = zone.slot;
+        if (slot >= slotCount || zones[slot] != zone || !live[slot])
+            return false;
+        live[slot] = false;
+        index.remove(slot, centerX[slot], centerY[slot]);
+        prngs[slot] = null;
+        zones[slot] = null;
+        zoneCount--;
+        return true;
+    }
+
+    /* Return the cohort queued at the step, or null if there is none. */
+    private ZoneCohort cohortAt(int atStep) {
+        for (int i = 0; i < cohorts.size(); i++) {
+            if (cohorts.get(i).atStep == atStep)
+                return cohorts.get(i);
+        }
+        return null;
+    }
+
+    /**
+     * Move every zone forward to its first update at or after the given
+     * step, approximately.
+     *
+     * The population of a zone that has k updates before the step is
+     * sampled from the distribution of the population after k updates (see
+     * PopulationTransitions), using one random number from the zone's
+     * generator. A zone with a population too large for the distribution is
+     * updated exactly. Each cohort is queued again at its new step, merging
+     * cohorts that arrive at the same step.
+     *
+     * Only Cs345Opolis.fastForward should call this. It moves the rest of the
+     * game forward to the step.
+     * @param toStep the step
+     */
+    public void fastForward(int toStep) {
+        List<ZoneCohort> moved = new ArrayList<>();
+        for (ZoneCohort cohort : cohorts) {
+            if (cohort.atStep >= toStep)
+                moved.add(cohort);
+        }
+        for (ZoneCohort cohort : cohorts) {
+            if (cohort.atStep >= toStep)
+                continue;
+            int updates = (toStep - cohort.atStep + UPDATE_INTERVAL - 1) / UPDATE_INTERVAL;
+            cohort.compact();
+            double[][] transitions = PopulationTransitions.forUpdates(updates);
+            for (int i = 0; i < cohort.size; i++) {
+                int slot = cohort.slots[i];
+                if (population[slot] <= PopulationTransitions.MAX_POPULATION) {
+                    population[slot] = PopulationTransitions.sample(
+                            transitions[population[slot]], prngs[slot].nextDouble());
+                } else {
+                    for (int j = 0; j < updates; j++) {
+                        update(slot);
+                    }
+                }
+            }
+
+            parent.cancelAction(cohort.handle);
+            cohort.atStep += updates * UPDATE_INTERVAL;
+            ZoneCohort target = null;
+            for (ZoneCohort other : moved) {
+                if (other.atStep == cohort.atStep)
+                    target = other;
+            }
+            if (target != null) {
+                target.merge(cohort);
+            } else if (cohort.size > 0) {
+                cohort.handle = parent.addActionAt(cohort.atStep, cohort);
+                moved.add(cohort);
+            }
+        }
+        cohorts.clear();
+        cohorts.addAll(moved);
+    }
+
+    /**
+     * Do the periodic update for the zone in a slot.
+     *
+     * The periodic update adjust the population toward the desired population.
+     * The update only changes the state of its own slot.
+     */
+    private void update(int slot) {
+        Random prng = prngs[slot];
+        // Do we want to adjust the population
+        if (prng.nextInt(8) == 0) {
+            // 1 in every 8 cycles (random) adjust population
+            // Get a random number 20 .. 60. If we're less than that, add
+            // people. If we're more than that, subtract.
+            int desired = prng.nextInt(40) + 20;
+            int pop = population[slot];
+            if (pop < desired) {
+                population[slot] = pop + prng.nextInt(3) + 1;
+            } else if (pop > desired) {
+                population[slot] = Math.max(0, pop - (prng.nextInt(3) + 1));
+            }
+        }
+    }
+
+    /**
+     * The zones whose updates are due at the same step, in order of their
+     * sequence numbers.
+     */
+    private class ZoneCohort implements SimulatorAction, IntConsumer {
+        private int atStep;
+        private ActionHandle handle;
+        private int[] slots = new int[INITIAL_CAPACITY];
+        private int size = 0;
+
+        ZoneCohort(int atStep) {
+            this.atStep = atStep;
+        }
+
+        ResidentialSystem system() {
+            return ResidentialSystem.this;
+        }
+
+        void append(int slot) {
+            if (size == slots.length)
+                slots = Arrays.copyOf(slots, 2 * size);
+            slots[size++] = slot;
+        }
+
+        /* Merge the zones of the other cohort into this one. */
+        void merge(ZoneCohort other) {
+            int[] merged = new int[Math.max(INITIAL_CAPACITY, size + other.size)];
+            int i = 0, j = 0, k = 0;
+            while (i < size && j < other.size) {
+                if (sequence[slots[i]] < sequence[other.slots[j]])
+                    merged[k++] = slots[i++];
+                else
+                    merged[k++] = other.slots[j++];
+            }
+            while (i < size)
+                merged[k++] = slots[i++];
+            while (j < other.size)
+                merged[k++] = other.slots[j++];
+            slots = merged;
+            size = k;
+        }
+
+        /* Drop the slots of bulldozed zones, freeing them. Return true if
+         * every zone left has its own random number generator. */
+        private boolean compact() {
+            int k = 0;
+            boolean ownPrngs = true;
+            for (int i = 0; i < size; i++) {
+                int slot = slots[i];
+                if (live[slot]) {
+                    slots[k++] = slot;
+                    ownPrngs &= !parent.isGamePrng(prngs[slot]);
+                } else {
+                    if (freeCount == free.length)
+                        free = Arrays.copyOf(free, 2 * freeCount);
+                    free[freeCount++] = slot;
+                }
+            }
+            size = k;
+            return ownPrngs;
+        }
+
+        /* Update the zone at an index of the cohort. */
+        @Override public void accept(int index) {
+            update(slots[index]);
+        }
+
+        /**
+         * Update every zone of the cohort and add their population to the
+         * total. The zones are updated in parallel (see
+         * Simulator.parallelFor) only if each has its own random number
+         * generator. A zone that uses the game's generator, as zones do when
+         * the property cs345opolis.simulator.threads is not set, makes the
+         * cohort update its zones in order.
+         *
+         * The cohort will be rescheduled for the next week, unless another
+         * cohort is already queued for that step.
+         * @return the update interval, or 0 if the cohort is done
+         */
+        @Override public int doAction() {
+            if (compact()) {
+                parent.parallelFor(0, size, this);
+            } else {
+                for (int i = 0; i < size; i++) {
+                    update(slots[i]);
+                }
+            }
+            int total = 0;
+            for (int i = 0; i < size; i++) {
+                total += population[slots[i]];
+            }
+            parent.addResPop(total);
+
+            cohorts.remove(this);
+            if (size == 0)
+                return 0;
+            int next = atStep + UPDATE_INTERVAL;
+            ZoneCohort target = cohortAt(next);
+            if (target != null) {
+                target.merge(this);
+                return 0;
+            }
+            atStep = next;
+            cohorts.add(this);
+            return UPDATE_INTERVAL;
+        }
+    }
+}
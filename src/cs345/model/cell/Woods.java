@@ -7,6 +7,7 @@
 package cs345.model.cell;
 
 import cs345.model.Cell;
+import cs345.model.Cs345Opolis;
 
 /**
  * Cell for woods, forest, trees.
@@ -38,7 +39,7 @@ public class Woods implements Cell {
         return true;
     }
 
-    @Override public void bulldoze() {
+    @Override public void bulldoze(Cs345Opolis game) {
         // Nothing to do here
     }
 }
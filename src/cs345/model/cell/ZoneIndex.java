@@ -0,0 +1,281 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.model.cell;
+
+import cs345.model.GridRectangle;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * A uniform grid spatial index of the centers of the zones of a
+ * ResidentialSystem.
+ *
+ * The map is divided into square buckets of BUCKET_SIZE cells on a side,
+ * and each bucket holds the slots of the zones whose centers are in it.
+ * Only buckets that have held a zone exist, so the index does not depend on
+ * the size of the grid. A query visits the buckets that overlap its
+ * rectangle, and only tests the zones of the buckets on its edges, so its
+ * time is proportional to the number of zones found plus the number of
+ * buckets covered, 1/256 of the cells.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class ZoneIndex {
+
+    /* Buckets are 1 << BUCKET_SHIFT cells on a side. */
+    private static final int BUCKET_SHIFT = 4;
+    private static final int BUCKET_SIZE = 1 << BUCKET_SHIFT;
+
+    private final Map<Long, Bucket> buckets = new HashMap<>();
+    private int maxBucketX = 0; // Largest bucket coordinates that have held a zone
+    private int maxBucketY = 0;
+
+    ZoneIndex() { }
+
+    /* Construct a copy of an index. */
+    private ZoneIndex(ZoneIndex original) {
+        for (Map.Entry<Long, Bucket> entry : original.buckets.entrySet()) {
+            buckets.put(entry.getKey(), new Bucket(entry.getValue()));
+        }
+        maxBucketX = original.maxBucketX;
+        maxBucketY = original.maxBucketY;
+    }
+
+    /**
+     * Return a copy of this index, for a copy of its system.
+     * @return the copy
+     */
+    ZoneIndex copy() {
+        return new ZoneIndex(this);
+    }
+
+    /**
+     * Add a zone.
+     * @param slot the slot of the zone
+     * @param x the x coordinate of its center
+     * @param y the y coordinate of its center
+     */
+    void add(int slot, int x, int y) {
+        int bucketX = x >> BUCKET_SHIFT;
+        int bucketY = y >> BUCKET_SHIFT;
+        buckets.computeIfAbsent(key(bucketX, bucketY), k -> new Bucket()).add(slot, x, y);
+        maxBucketX = Math.max(maxBucketX, bucketX);
+        maxBucketY = Math.max(maxBucketY, bucketY);
+    }
+
+    /**
+     * Remove a zone.
+     * @param slot the slot of the zone
+     * @param x the x coordinate of its center
+     * @param y the y coordinate of its center
+     */
+    void remove(int slot, int x, int y) {
+        Bucket bucket = buckets.get(key(x >> BUCKET_SHIFT, y >> BUCKET_SHIFT));
+        if (bucket != null)
+            bucket.remove(slot);
+    }
+
+    /**
+     * Return the slot of the zone with the given center.
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the slot, or -1 if there is no zone with that center
+     */
+    int slotAt(int x, int y) {
+        Bucket bucket = buckets.get(key(x >> BUCKET_SHIFT, y >> BUCKET_SHIFT));
+        if (bucket != null) {
+            for (int i = 0; i < bucket.size; i++) {
+                if (bucket.xs[i] == x && bucket.ys[i] == y)
+                    return bucket.slots[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Call the action with the slot of each zone whose center is in the
+     * rectangle. The zones are visited a bucket at a time, in row order of
+     * the buckets.
+     * @param rect the rectangle
+     * @param action the action
+     */
+    void forEachIn(GridRectangle rect, IntConsumer action) {
+        int right = rect.x + rect.w;
+        int bottom = rect.y + rect.h;
+        forBuckets(rect, (bucket, inside) -> {
+            for (int i = 0; i < bucket.size; i++) {
+                if (inside || contains(rect, right, bottom, bucket.xs[i], bucket.ys[i]))
+                    action.accept(bucket.slots[i]);
+            }
+        });
+    }
+
+    /**
+     * Return the number of zones whose centers are in the rectangle. The
+     * zones of buckets inside the rectangle are counted without being
+     * tested.
+     * @param rect the rectangle
+     * @return the number of zones
+     */
+    int countIn(GridRectangle rect) {
+        int right = rect.x + rect.w;
+        int bottom = rect.y + rect.h;
+        int[] count = new int[1];
+        forBuckets(rect, (bucket, inside) -> {
+            if (inside) {
+                count[0] += bucket.size;
+            } else {
+                for (int i = 0; i < bucket.size; i++) {
+                    if (contains(rect, right, bottom, bucket.xs[i], bucket.ys[i]))
+                        count[0]++;
+                }
+            }
+        });
+        return count[0];
+    }
+
+    /**
+     * Return the slot of the zone whose center is nearest to a location.
+     * Distance is Euclidean, and of zones at the same distance the one with
+     * the smallest y, then x, is returned.
+     *
+     * The buckets are searched in rings around the bucket of the location,
+     * stopping at the first ring that cannot hold a nearer zone.
+     * @param x the x coordinate of the location
+     * @param y the y coordinate of the location
+     * @return the slot, or -1 if there are no zones
+     */
+    int nearest(int x, int y) {
+        int centerX = x >> BUCKET_SHIFT;
+        int centerY = y >> BUCKET_SHIFT;
+        int maxRing = Math.max(Math.max(centerX, maxBucketX - centerX),
+                Math.max(centerY, maxBucketY - centerY));
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        int bestX = 0, bestY = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            for (int bucketY = centerY - ring; bucketY <= centerY + ring; bucketY++) {
+                // Only the edges of the ring are new
+                boolean edgeRow = bucketY == centerY - ring || bucketY == centerY + ring;
+                int step = edgeRow ? 1 : 2 * ring;
+                for (int bucketX = centerX - ring; bucketX <= centerX + ring; bucketX += step) {
+                    Bucket bucket = buckets.get(key(bucketX, bucketY));
+                    if (bucket == null)
+                        continue;
+                    for (int i = 0; i < bucket.size; i++) {
+                        long dx = bucket.xs[i] - x;
+                        long dy = bucket.ys[i] - y;
+                        long distance = dx * dx + dy * dy;
+                        if (distance < bestDistance || distance == bestDistance
+                                && (bucket.ys[i] < bestY || bucket.ys[i] == bestY && bucket.xs[i] < bestX)) {
+                            best = bucket.slots[i];
+                            bestDistance = distance;
+                            bestX = bucket.xs[i];
+                            bestY = bucket.ys[i];
+                        }
+                    }
+                }
+            }
+            // Every zone in the next ring is more than ring * BUCKET_SIZE
+            // away on one axis
+            long reach = (long) ring * BUCKET_SIZE;
+            if (bestDistance <= reach * reach)
+                break;
+        }
+        return best;
+    }
+
+    /**
+     * Receives the buckets that overlap a rectangle.
+     */
+    private interface BucketVisitor {
+        void visit(Bucket bucket, boolean inside);
+    }
+
+    /* Visit each bucket that overlaps the rectangle, and whether the bucket
+     * is inside the rectangle. */
+    private void forBuckets(GridRectangle rect, BucketVisitor visitor) {
+        if (rect.w <= 0 || rect.h <= 0)
+            return;
+        int right = rect.x + rect.w;
+        int bottom = rect.y + rect.h;
+        int left = Math.max(0, rect.x >> BUCKET_SHIFT);
+        int top = Math.max(0, rect.y >> BUCKET_SHIFT);
+        int last = Math.min(maxBucketX, (right - 1) >> BUCKET_SHIFT);
+        int lastRow = Math.min(maxBucketY, (bottom - 1) >> BUCKET_SHIFT);
+        for (int bucketY = top; bucketY <= lastRow; bucketY++) {
+            int cellY = bucketY << BUCKET_SHIFT;
+            boolean rowInside = rect.y <= cellY && cellY + BUCKET_SIZE <= bottom;
+            for (int bucketX = left; bucketX <= last; bucketX++) {
+                Bucket bucket = buckets.get(key(bucketX, bucketY));
+                if (bucket == null || bucket.size == 0)
+                    continue;
+                int cellX = bucketX << BUCKET_SHIFT;
+                visitor.visit(bucket, rowInside && rect.x <= cellX && cellX + BUCKET_SIZE <= right);
+            }
+        }
+    }
+
+    private static boolean contains(GridRectangle rect, int right, int bottom, int x, int y) {
+        return rect.x <= x && x < right && rect.y <= y && y < bottom;
+    }
+
+    private static long key(int bucketX, int bucketY) {
+        return (long) bucketX << 32 | (bucketY & 0xFFFFFFFFL);
+    }
+
+    /**
+     * The zones whose centers are in one bucket, in no particular order.
+     */
+    private static final class Bucket {
+        private int[] slots;
+        private int[] xs;
+        private int[] ys;
+        private int size = 0;
+
+        Bucket() {
+            slots = new int[4];
+            xs = new int[4];
+            ys = new int[4];
+        }
+
+        Bucket(Bucket original) {
+            slots = original.slots.clone();
+            xs = original.xs.clone();
+            ys = original.ys.clone();
+            size = original.size;
+        }
+
+        void add(int slot, int x, int y) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, 2 * size);
+                xs = Arrays.copyOf(xs, 2 * size);
+                ys = Arrays.copyOf(ys, 2 * size);
+            }
+            slots[size] = slot;
+            xs[size] = x;
+            ys[size] = y;
+            size++;
+        }
+
+        /* Remove a slot, moving the last zone into its place. */
+        void remove(int slot) {
+            for (int i = 0; i < size; i++) {
+                if (slots[i] == slot) {
+                    size--;
+                    slots[i] = slots[size];
+                    xs[i] = xs[size];
+                    ys[i] = ys[size];
+                    return;
+                }
+            }
+        }
+    }
+}
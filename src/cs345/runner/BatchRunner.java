@@ -0,0 +1,182 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
+import cs345.model.MapGenerator;
+import cs345.model.ModelFactory;
+import cs345.model.Simulator;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Run a script of commands once for each seed in a range, without a console.
+ *
+ * For each seed, a game is created with both the game's random seed and the
+ * map generator's random seed set to the seed, and the commands of the script
+ * are run on it. The games are independent and are run as tasks on a shared
+ * work-stealing ForkJoinPool, with one thread per processor unless the
+ * property cs345opolis.batch.threads is set. Each game runs its own actions
+ * sequentially, so the property cs345opolis.simulator.threads is ignored.
+ * The games cannot share a map file, so MAPPED grid storage is replaced by
+ * PACKED.
+ *
+ * The population is sampled after each step command of the script. The
+ * output has a line for each seed, with its final and peak population and
+ * the number of commands that failed, followed by a line for each sample
+ * time with the minimum, mean, maximum and standard deviation of the
+ * population over all the seeds.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+public class BatchRunner {
+
+    public static final String BATCH_THREADS = "cs345opolis.batch.threads";
+
+    private final Properties props;
+    private final List<String> script;
+    private final PrintStream output;
+
+    /**
+     * Create a batch runner.
+     * @param defaults the properties for the games. The random seeds are
+     *                 replaced by the seed of each game.
+     * @param scriptFile the file of commands to run for each seed
+     * @param output the stream for the results
+     * @throws IOException if the script cannot be read
+     */
+    public BatchRunner(Properties defaults, File scriptFile, PrintStream output) throws IOException {
+        this.props = new Properties();
+        this.props.putAll(defaults);
+        this.props.remove(Simulator.SIMULATOR_THREADS_PROP);
+        this.props.setProperty(TextRunner.RUNNER_ASYNC, "false");
+        if (Grid.storageType(props) == Grid.StorageType.MAPPED)
+            this.props.setProperty(Grid.GRID_STORAGE_PROP, Grid.StorageType.PACKED.name());
+        this.script = Files.readAllLines(scriptFile.toPath());
+        this.output = output;
+    }
+
+    /**
+     * Run the script for each seed from first to last, inclusive, and output
+     * the results.
+     * @param first the first seed
+     * @param last the last seed
+     */
+    public void run(long first, long last) {
+        if (last < first)
+            throw new IllegalArgumentException("Last seed is before first seed");
+        int threads = Integer.parseInt(props.getProperty(BATCH_THREADS,
+                Integer.toString(Runtime.getRuntime().availableProcessors())));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        List<ForkJoinTask<SeedResult>> tasks = new ArrayList<>();
+        try {
+            for (long seed = first; seed <= last; seed++) {
+                long taskSeed = seed;
+                tasks.add(pool.submit(() -> runSeed(taskSeed)));
+            }
+            List<SeedResult> results = new ArrayList<>();
+            for (ForkJoinTask<SeedResult> task : tasks) {
+                results.add(task.join());
+            }
+            report(results);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /* Run the script for one seed. */
+    private SeedResult runSeed(long seed) {
+        Properties seedProps = new Properties();
+        seedProps.putAll(props);
+        seedProps.setProperty(Cs345Opolis.PRNG_SEED, Long.toString(seed));
+        seedProps.setProperty(MapGenerator.RANDOM_SEED_PROP, Long.toString(seed));
+        PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+        TextRunner runner = new TextRunner(new ModelFactory(), seedProps,
+                new Scanner(""), discard);
+        runner.initMap(true);
+        Cs345Opolis game = runner.getGame();
+
+        SeedResult result = new SeedResult(seed);
+        for (String line : script) {
+            line = line.trim();
+            if (line.length() == 0)
+                continue;
+            try {
+                Command cmd = runner.getView().parseCommand(line.split("\\s+"));
+                cmd.run();
+                if (cmd instanceof StepCommand) {
+                    result.sample(game.getCurrentTime().getTimeData().toString(),
+                            game.curResPop);
+                }
+            } catch (CommandException ex) {
+                result.failures++;
+            }
+            if (runner.isQuit())
+                break;
+        }
+        return result;
+    }
+
+    /* Output the results. */
+    private void report(List<SeedResult> results) {
+        for (SeedResult result : results) {
+            int peak = 0;
+            for (int pop : result.populations) {
+                peak = Math.max(peak, pop);
+            }
+            int last = result.populations.isEmpty()
+                    ? 0 : result.populations.get(result.populations.size() - 1);
+            output.println(String.format("seed %d: population %d, peak %d, failed commands %d",
+                    result.seed, last, peak, result.failures));
+        }
+
+        // The same script gives every seed the same sample times
+        int samples = results.get(0).times.size();
+        for (int i = 0; i < samples; i++) {
+            int min = Integer.MAX_VALUE;
+            int max = Integer.MIN_VALUE;
+            double sum = 0;
+            double sumSquares = 0;
+            for (SeedResult result : results) {
+                int pop = result.populations.get(i);
+                min = Math.min(min, pop);
+                max = Math.max(max, pop);
+                sum += pop;
+                sumSquares += (double) pop * pop;
+            }
+            int n = results.size();
+            double mean = sum / n;
+            double sd = Math.sqrt(Math.max(0, sumSquares / n - mean * mean));
+            output.println(String.format("%s: min %d, mean %.1f, max %d, sd %.1f",
+                    results.get(0).times.get(i), min, mean, max, sd));
+        }
+    }
+
+    /**
+     * The populations sampled for one seed.
+     */
+    private static class SeedResult {
+        final long seed;
+        final List<String> times = new ArrayList<>();
+        final List<Integer> populations = new ArrayList<>();
+        int failures = 0;
+
+        SeedResult(long seed) {
+            this.seed = seed;
+        }
+
+        void sample(String time, int population) {
+            times.add(time);
+            populations.add(population);
+        }
+    }
+}
@@ -9,6 +9,8 @@ package cs345.runner;
 import cs345.model.Cs345Opolis;
 import cs345.model.GridRectangle;
 
+import java.io.IOException;
+
 /**
  * A bulldoze Command, includes the region to be bulldozed.
  *
@@ -37,4 +39,9 @@ class BulldozeCommand implements Command {
         }
         game.bulldoze(rect);
     }
+
+    @Override
+    public void writeTo(CommandJournal journal) throws IOException {
+        journal.writeBulldoze(rect);
+    }
 }
\ No newline at end of file
@@ -6,10 +6,33 @@
 
 package cs345.runner;
 
+import java.io.IOException;
+
 /**
  * A command object. It is assumed that a Command object contains all the
  * information required to run the command.
  */
 public interface Command {
     void run() throws CommandException;
+
+    /**
+     * Record this command in the journal after it has run successfully.
+     * Commands that do not change the game are not recorded, which is the
+     * default.
+     * @param journal the journal
+     * @throws IOException if the journal cannot be written
+     */
+    default void writeTo(CommandJournal journal) throws IOException {
+        // Nothing to record
+    }
+
+    /**
+     * Return true if the command changes the game. When the simulation runs
+     * on its own thread, these commands are run by that thread between
+     * steps. Other commands are run immediately. The default is true.
+     * @return true if the command changes the game
+     */
+    default boolean changesGame() {
+        return true;
+    }
 }
@@ -0,0 +1,377 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
+import cs345.model.GridLocation;
+import cs345.model.GridRectangle;
+import cs345.model.MapGenerator;
+import cs345.model.Simulator;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * A binary journal of the commands that have changed a game.
+ *
+ * The journal starts with a header holding the random seeds and the grid
+ * size of the game, and the settings (see SETTINGS) that change how the
+ * game is simulated. It is followed by one fixed size record for each
+ * successful newgrid, step, fast step, zone or bulldoze command. Each record
+ * is flushed as it is written, so the journal survives a crash.
+ *
+ * A run of step and fast step commands is followed by a state record with
+ * the step and digest of the game after the run. The state is taken once,
+ * when the run ends: just before the next command that changes the game
+ * runs (see TextRunner.apply), or when the journal is closed. It is written
+ * before the next record of another type, or when the journal is closed, so
+ * the steps of a run are next to each other in the journal. The state of
+ * the last run is lost in a crash.
+ *
+ * Replaying a journal applies the records directly to a new game, with
+ * consecutive steps combined into a single advance and no output. The
+ * settings of the game must be the same as the settings in the header, and
+ * each state record is checked against the replayed game. A partial record
+ * at the end of the journal (from a crash while writing) is ignored and
+ * truncated.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class CommandJournal implements Closeable {
+
+    private static final int MAGIC = 0x43533441; // "CS4J"
+    private static final int VERSION = 3;
+    /* The size of the header before the settings. The settings are a length
+     * followed by that many bytes. */
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 4 + 4 + 4;
+
+    /* The properties, other than the seeds and the grid size, that change
+     * the results of the commands or how they are simulated. */
+    private static final List<String> SETTINGS = Arrays.asList(
+            Simulator.SIMULATOR_THREADS_PROP,
+            Simulator.SIMULATOR_QUEUE_PROP,
+            Simulator.SIMULATOR_YEAR_PROP,
+            Simulator.SIMULATOR_MONTH_PROP,
+            Simulator.SIMULATOR_WEEK_PROP,
+            Grid.GRID_STORAGE_PROP,
+            MapGenerator.CREATE_ISLAND_PROP,
+            MapGenerator.TREE_LEVEL_PROP,
+            MapGenerator.CURVE_LEVEL_PROP,
+            MapGenerator.LAKE_LEVEL_PROP);
+
+    /* Record types and their sizes, including the type byte. */
+    private static final byte NEWGRID = 1;
+    private static final byte STEP = 2;
+    private static final byte ZONE = 3;
+    private static final byte BULLDOZE = 4;
+    private static final byte STATE = 5;
+    private static final byte FASTSTEP = 6;
+    private static final int[] RECORD_SIZE = { 0, 1, 5, 10, 17, 13, 5 };
+
+    /* Zone types are recorded by their index in this list. */
+    private static final List<String> ZONE_TYPES = Arrays.asList("residential");
+
+    private final DataOutputStream out;
+
+    /* The game after the last run of steps, while the state of the run has
+     * not been written, otherwise null. The state is taken by takeState. */
+    private Cs345Opolis runGame = null;
+    private boolean stateTaken;
+    private int stateStep;
+    private long stateDigest;
+
+    /* Open a journal for writing at the given position in the file. */
+    private CommandJournal(File file, long position) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(position);
+        raf.close();
+        out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)));
+    }
+
+    /**
+     * Create a new journal, replacing any existing file. Random seeds that
+     * are missing from the properties are chosen and added, so the game can
+     * be replayed.
+     * @param file the journal file
+     * @param props the properties for the game, updated with the seeds
+     * @return the journal
+     * @throws IOException if the journal cannot be written
+     */
+    static CommandJournal create(File file, Properties props) throws IOException {
+        Random seeds = new Random();
+        props.putIfAbsent(Cs345Opolis.PRNG_SEED, Long.toString(seeds.nextLong()));
+        props.putIfAbsent(MapGenerator.RANDOM_SEED_PROP, Long.toString(seeds.nextLong()));
+        CommandJournal journal = new CommandJournal(file, 0);
+        DataOutputStream out = journal.out;
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(Long.parseLong(props.getProperty(Cs345Opolis.PRNG_SEED)));
+        out.writeLong(Long.parseLong(props.getProperty(MapGenerator.RANDOM_SEED_PROP)));
+        out.writeInt(Integer.parseInt(props.getProperty(TextRunner.GRID_WIDTH)));
+        out.writeInt(Integer.parseInt(props.getProperty(TextRunner.GRID_HEIGHT)));
+        ByteArrayOutputStream settings = new ByteArrayOutputStream();
+        DataOutputStream settingsOut = new DataOutputStream(settings);
+        for (String name : SETTINGS) {
+            settingsOut.writeUTF(name);
+            settingsOut.writeUTF(props.getProperty(name, ""));
+        }
+        out.writeInt(settings.size());
+        settings.writeTo(out);
+        out.flush();
+        return journal;
+    }
+
+    /**
+     * Read the header of a journal and set the seeds and grid size it records
+     * in the properties. The settings recorded in the header must be the same
+     * as the settings in the properties.
+     * @param file the journal file
+     * @param props the properties to be updated
+     * @throws IOException if the journal cannot be read, is not a journal or
+     *      was recorded with other settings
+     */
+    static void readHeader(File file, Properties props) throws IOException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            readHeader(in, props);
+        }
+    }
+
+    /* Read the header, returning its size. */
+    private static long readHeader(DataInputStream in, Properties props) throws IOException {
+        if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            throw new IOException("Not a CS345Opolis journal");
+        props.setProperty(Cs345Opolis.PRNG_SEED, Long.toString(in.readLong()));
+        props.setProperty(MapGenerator.RANDOM_SEED_PROP, Long.toString(in.readLong()));
+        props.setProperty(TextRunner.GRID_WIDTH, Integer.toString(in.readInt()));
+        props.setProperty(TextRunner.GRID_HEIGHT, Integer.toString(in.readInt()));
+        byte[] settings = new byte[in.readInt()];
+        in.readFully(settings);
+        DataInputStream settingsIn = new DataInputStream(new ByteArrayInputStream(settings));
+        while (settingsIn.available() > 0) {
+            String name = settingsIn.readUTF();
+            String value = settingsIn.readUTF();
+            String current = props.getProperty(name, "");
+            if (!value.equals(current))
+                throw new IOException(String.format("Journal was recorded with %s %s, but it is %s now",
+                        name, describe(value), describe(current)));
+        }
+        return HEADER_SIZE + settings.length;
+    }
+
+    /* Describe the value of a setting, which is empty if it is not set. */
+    private static String describe(String value) {
+        return value.isEmpty() ? "not set" : "set to " + value;
+    }
+
+    /**
+     * Replay the journal on the runner. The runner's game must have been
+     * created with the properties from readHeader and its map initialized.
+     *
+     * @param file the journal file
+     * @param runner the runner to replay the commands on
+     * @return the journal, open to append further commands
+     * @throws IOException if the journal cannot be read or the replayed game
+     *      does not match the journal
+     */
+    static CommandJournal replay(File file, TextRunner runner) throws IOException {
+        long position = -1;
+        int pendingSteps = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            position = readHeader(in, runner.getProps());
+            while (true) {
+                int type = in.read();
+                if (type < 0)
+                    break;
+                if (type >= RECORD_SIZE.length || RECORD_SIZE[type] == 0)
+                    throw new IOException("Bad journal record at " + position);
+                if (type == STEP) {
+                    pendingSteps += in.readInt();
+                } else {
+                    byte[] record = new byte[RECORD_SIZE[type] - 1];
+                    in.readFully(record);
+                    if (pendingSteps > 0) {
+                        runner.step(pendingSteps, 1);
+                        pendingSteps = 0;
+                    }
+                    apply(type, new DataInputStream(new ByteArrayInputStream(record)), runner);
+                }
+                position += RECORD_SIZE[type];
+            }
+        } catch (EOFException ex) {
+            if (position < 0)
+                throw new IOException("Not a CS345Opolis journal");
+            // Partial record at the end of the journal, it is dropped
+        } catch (CommandException ex) {
+            throw new IOException("Journal command failed: " + ex.getMessage());
+        }
+        if (pendingSteps > 0)
+            runner.step(pendingSteps, 1);
+        return new CommandJournal(file, position);
+    }
+
+    /* Apply a single record, other than a step, to the runner. */
+    private static void apply(int type, DataInputStream in, TextRunner runner)
+            throws IOException, CommandException {
+        switch (type) {
+            case NEWGRID:
+                new NewGridCommand(runner).run();
+                break;
+            case ZONE:
+                String zoneType = ZONE_TYPES.get(in.readByte());
+                GridLocation loc = new GridLocation(in.readInt(), in.readInt());
+                new ZoneCommand(runner, zoneType, loc).run();
+                break;
+            case BULLDOZE:
+                GridRectangle rect = new GridRectangle(
+                        in.readInt(), in.readInt(), in.readInt(), in.readInt());
+                new BulldozeCommand(runner, rect).run();
+                break;
+            case FASTSTEP:
+                runner.fastForward(in.readInt());
+                break;
+            case STATE:
+                Cs345Opolis game = runner.getGame();
+                int step = in.readInt();
+                long digest = in.readLong();
+                if (game.getCurrentStep() != step || game.stateDigest() != digest)
+                    throw new IOException(String.format(
+                            "Replayed game does not match journal at step %d", step));
+                break;
+        }
+    }
+
+    /* Write the record type, the data for the record must follow. A record
+     * that does not continue a run of steps is preceded by the state of the
+     * game after the run. */
+    private void startRecord(byte type) throws IOException {
+        if (type != STEP && type != FASTSTEP)
+            writeState();
+        out.writeByte(type);
+    }
+
+    /* Write the state record for the last run of steps, if it has not been
+     * written. */
+    private void writeState() throws IOException {
+        if (runGame != null) {
+            takeState();
+            runGame = null;
+            out.writeByte(STATE);
+            out.writeInt(stateStep);
+            out.writeLong(stateDigest);
+        }
+    }
+
+    /* Record that a step continues the run of steps of the game. */
+    private void continueRun(Cs345Opolis game) {
+        runGame = game;
+        stateTaken = false;
+    }
+
+    /**
+     * Take the state of the game after the last run of steps, if it has not
+     * been taken. This is called just before a command other than a step
+     * changes the game, since the run has then ended. Taking the state reads
+     * every tile and zone of the game (see Cs345Opolis.stateDigest), so it
+     * is done once for a run, however many steps it has.
+     */
+    void takeState() {
+        if (runGame != null && !stateTaken) {
+            stateTaken = true;
+            stateStep = runGame.getCurrentStep();
+            stateDigest = runGame.stateDigest();
+        }
+    }
+
+    /* Flush the record. */
+    private void endRecord() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Record a newgrid command.
+     * @throws IOException if the record cannot be written
+     */
+    void writeNewGrid() throws IOException {
+        startRecord(NEWGRID);
+        endRecord();
+    }
+
+    /**
+     * Record a step command. The state of the game is taken and written at
+     * the end of the run of steps.
+     * @param steps the number of steps
+     * @param game the game after the step
+     * @throws IOException if the record cannot be written
+     */
+    void writeStep(int steps, Cs345Opolis game) throws IOException {
+        startRecord(STEP);
+        out.writeInt(steps);
+        endRecord();
+        continueRun(game);
+    }
+
+    /**
+     * Record a fast step command. The state of the game is taken and written
+     * at the end of the run of steps.
+     * @param steps the number of steps
+     * @param game the game after the step
+     * @throws IOException if the record cannot be written
+     */
+    void writeFastStep(int steps, Cs345Opolis game) throws IOException {
+        startRecord(FASTSTEP);
+        out.writeInt(steps);
+        endRecord();
+        continueRun(game);
+    }
+
+    /**
+     * Record a zone command.
+     * @param zoneType the type of zone
+     * @param loc the center of the zone
+     * @throws IOException if the record cannot be written
+     */
+    void writeZone(String zoneType, GridLocation loc) throws IOException {
+        startRecord(ZONE);
+        out.writeByte(ZONE_TYPES.indexOf(zoneType));
+        out.writeInt(loc.x);
+        out.writeInt(loc.y);
+        endRecord();
+    }
+
+    /**
+     * Record a bulldoze command.
+     * @param rect the rectangle bulldozed
+     * @throws IOException if the record cannot be written
+     */
+    void writeBulldoze(GridRectangle rect) throws IOException {
+        startRecord(BULLDOZE);
+        out.writeInt(rect.x);
+        out.writeInt(rect.y);
+        out.writeInt(rect.w);
+        out.writeInt(rect.h);
+        endRecord();
+    }
+
+    /**
+     * Write the state of the game after the last run of steps and close the
+     * journal.
+     * @throws IOException if the journal cannot be written
+     */
+    @Override public void close() throws IOException {
+        try {
+            writeState();
+        } finally {
+            out.close();
+        }
+    }
+}
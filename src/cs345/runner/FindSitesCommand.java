@@ -0,0 +1,61 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
+import cs345.model.GridLocation;
+import cs345.model.GridRectangle;
+
+import java.util.List;
+
+/**
+ * A find sites Command. Lists the centers where a residential zone can be
+ * placed, that is, where zone residential x y would succeed.
+ *
+ * The search reads the live game (see Cs345Opolis.findSites), so when the
+ * simulation runs on its own thread this command is run by that thread
+ * between steps, as the commands that change the game are.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class FindSitesCommand implements Command {
+
+    private TextRunner runner;
+    private int limit;
+    private GridRectangle rect;
+
+    /** Construct a new find sites command.
+     *
+     * @param runner the TextRunner associated with this command.
+     * @param limit the largest number of sites to list, or 0 for all
+     * @param rect the rectangle the zones must be inside, or null for the
+     *             whole grid
+     */
+    FindSitesCommand(TextRunner runner, int limit, GridRectangle rect) {
+        this.runner = runner;
+        this.limit = limit;
+        this.rect = rect;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        Cs345Opolis game = runner.getGame();
+        Grid grid = game.getGrid();
+        GridRectangle area = rect != null ? rect
+                : new GridRectangle(0, 0, grid.getWidth(), grid.getHeight());
+        if (!grid.validRegion(area)) {
+            throw new CommandException("Cannot search %s", area);
+        }
+        List<GridLocation> sites = game.findSites(area, limit);
+        TextView view = runner.getView();
+        view.message("%d sites", sites.size());
+        for (GridLocation site : sites) {
+            view.message("%d %d", site.x, site.y);
+        }
+    }
+}
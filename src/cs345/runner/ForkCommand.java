@@ -0,0 +1,59 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.Cs345Opolis;
+
+import java.util.List;
+
+/**
+ * A fork Command. Previews the effect of a plan of zone and bulldoze
+ * commands without changing the game.
+ *
+ * The game is forked twice (see Cs345Opolis.fork). The plan is run on one
+ * fork, then both forks are stepped the given number of steps. The population
+ * of the forks is reported and the forks are discarded.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class ForkCommand implements Command {
+
+    private TextRunner runner;
+    private int steps;
+    private List<String[]> plan;
+
+    /** Construct a new fork command.
+     *
+     * @param runner the TextRunner associated with this command.
+     * @param steps the number of steps to run the forks
+     * @param plan the words of each command of the plan
+     */
+    ForkCommand(TextRunner runner, int steps, List<String[]> plan) {
+        this.runner = runner;
+        this.steps = steps;
+        this.plan = plan;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        Cs345Opolis game = runner.getGame();
+
+        Cs345Opolis baseline = game.fork();
+        baseline.advance(steps);
+
+        Cs345Opolis fork = game.fork();
+        TextRunner forkRunner = runner.forkRunner(fork);
+        for (String[] words : plan) {
+            forkRunner.getView().parseCommand(words).run();
+        }
+        fork.advance(steps);
+
+        runner.getView().message("population %d now, in %d steps %d without the plan, %d with it (%+d)",
+                game.curResPop, steps, baseline.curResPop, fork.curResPop,
+                fork.curResPop - baseline.curResPop);
+    }
+}
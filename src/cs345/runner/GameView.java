@@ -0,0 +1,48 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.CityStats;
+import cs345.model.Cs345Opolis;
+import cs345.model.SimulatorStats;
+import cs345.model.SimulatorTime;
+
+/**
+ * A copy of the parts of a game, other than its grid, that are displayed by
+ * the show commands.
+ *
+ * A view is captured at one moment of the game and does not change, so it
+ * can be displayed by one thread while another thread changes the game.
+ * Capturing a view takes constant time however large the game is. The grid
+ * is copied separately, and only for the show grid command (see GridView).
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class GameView {
+
+    final SimulatorTime.TimeData time;
+    final int population;
+    final SimulatorStats stats; // null if statistics are disabled
+    final CityStats city; // Counts of the cells of the grid
+
+    private GameView(Cs345Opolis game) {
+        time = game.getCurrentTime().getTimeData();
+        population = game.curResPop;
+        stats = game.getStats();
+        city = game.getGrid().cityStats().copy();
+    }
+
+    /**
+     * Capture a view of a game. This must be called by the thread that is
+     * running the game.
+     * @param game the game
+     * @return the view
+     */
+    static GameView capture(Cs345Opolis game) {
+        return new GameView(game);
+    }
+}
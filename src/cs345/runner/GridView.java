@@ -0,0 +1,116 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.Cell;
+import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
+import cs345.model.cell.CellType;
+
+import java.util.Arrays;
+
+/**
+ * A copy of the grid of a game, as displayed by the show grid command.
+ *
+ * A view is captured at one moment of the game and does not change, so it
+ * can be displayed by one thread while another thread changes the game.
+ * Capturing a view reads every cell of the grid, so a view is only captured
+ * when it is to be displayed (see TextRunner.getGridView).
+ *
+ * A view can be captured from the previous view of the same game. The cell
+ * types of the tiles of the grid that have not changed since the previous
+ * view (see Grid.tileVersion) are copied from it rather than read from the
+ * grid, which is the common case while a game is stepped.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+final class GridView {
+
+    final int width;
+    final int height;
+
+    private final CellType[] cellTypes; // Row order
+    private final int[] populations; // Zone population, 0 for other cells
+
+    private final Grid grid; // The grid the view was captured from
+    private final int[] tileVersions; // The versions of its tiles
+
+    private GridView(Cs345Opolis game, GridView previous) {
+        grid = game.getGrid();
+        width = grid.getWidth();
+        height = grid.getHeight();
+        cellTypes = new CellType[width * height];
+        populations = new int[width * height];
+        if (previous != null && previous.grid != grid)
+            previous = null;
+
+        int tilesAcross = grid.getTilesAcross();
+        Cell[] span = new Cell[Grid.TILE_SIZE];
+        tileVersions = new int[tilesAcross * grid.getTilesDown()];
+        for (int tileY = 0; tileY < grid.getTilesDown(); tileY++) {
+            for (int tileX = 0; tileX < tilesAcross; tileX++) {
+                int tile = tileX + tilesAcross * tileY;
+                tileVersions[tile] = grid.tileVersion(tileX, tileY);
+                boolean unchanged = previous != null
+                        && previous.tileVersions[tile] == tileVersions[tile];
+                int left = tileX * Grid.TILE_SIZE;
+                int right = Math.min(width, left + Grid.TILE_SIZE);
+                int top = tileY * Grid.TILE_SIZE;
+                int bottom = Math.min(height, top + Grid.TILE_SIZE);
+                for (int row = top; row < bottom; row++) {
+                    if (unchanged) {
+                        System.arraycopy(previous.cellTypes, row * width + left,
+                                cellTypes, row * width + left, right - left);
+                    } else {
+                        grid.getRowSpan(left, row, right - left, span, 0);
+                        for (int col = left; col < right; col++) {
+                            cellTypes[row * width + col] = span[col - left].getCellType();
+                        }
+                    }
+                }
+            }
+        }
+
+        game.getResidentialSystem().forEachZone((x, y, pop, prng, atStep, sequence) -> {
+            for (int row = y - 1; row <= y + 1; row++) {
+                Arrays.fill(populations, row * width + x - 1, row * width + x + 2, pop);
+            }
+        });
+    }
+
+    /**
+     * Capture a view of the grid of a game, reusing the parts of the
+     * previous view of the game that have not changed. This must be called
+     * by the thread that is running the game.
+     * @param game the game
+     * @param previous the previous view of the game, or null
+     * @return the view
+     */
+    static GridView capture(Cs345Opolis game, GridView previous) {
+        return new GridView(game, previous);
+    }
+
+    /**
+     * Return the type of the cell at the given location.
+     * @param col the column
+     * @param row the row
+     * @return the cell type
+     */
+    CellType cellTypeAt(int col, int row) {
+        return cellTypes[row * width + col];
+    }
+
+    /**
+     * Return the population of the zone at the given location.
+     * @param col the column
+     * @param row the row
+     * @return the population, 0 if the cell is not a residential zone
+     */
+    int populationAt(int col, int row) {
+        return populations[row * width + col];
+    }
+}
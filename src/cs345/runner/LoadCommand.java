@@ -0,0 +1,42 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A load Command, includes the file to load the game from.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class LoadCommand implements Command {
+
+    private TextRunner runner;
+    private Path file;
+
+    LoadCommand(TextRunner runner, Path file) {
+        this.runner = runner;
+        this.file = file;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        try {
+            runner.getGame().loadSnapshot(file);
+        } catch (IOException ex) {
+            throw new CommandException("Cannot load %s: %s", file, ex.getMessage());
+        }
+        runner.newGridOK = false; // a loaded game keeps its grid
+    }
+
+    @Override
+    public void writeTo(CommandJournal journal) throws IOException {
+        // The journal cannot rebuild a loaded game
+        throw new IOException("a loaded game cannot be replayed");
+    }
+}
@@ -6,6 +6,8 @@
 
 package cs345.runner;
 
+import java.io.IOException;
+
 /**
  * A newgrid Command
  *
@@ -27,4 +29,9 @@ class NewGridCommand implements Command {
             throw new CommandException("New grid not allowed");
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void writeTo(CommandJournal journal) throws IOException {
+        journal.writeNewGrid();
+    }
+}
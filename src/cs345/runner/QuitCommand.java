@@ -23,4 +23,9 @@ class QuitCommand implements Command {
     public void run() {
         runner.setQuit();
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
@@ -0,0 +1,35 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A save Command, includes the file to save the game to.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class SaveCommand implements Command {
+
+    private TextRunner runner;
+    private Path file;
+
+    SaveCommand(TextRunner runner, Path file) {
+        this.runner = runner;
+        this.file = file;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        try {
+            runner.getGame().saveSnapshot(file);
+        } catch (IOException ex) {
+            throw new CommandException("Cannot save %s: %s", file, ex.getMessage());
+        }
+    }
+}
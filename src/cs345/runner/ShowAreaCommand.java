@@ -0,0 +1,42 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.CityStats;
+import cs345.model.cell.CellType;
+
+/**
+ * Display the forest, water and buildable area
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class ShowAreaCommand implements Command {
+
+    private TextRunner runner;
+
+    ShowAreaCommand(TextRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        CityStats city = runner.getCityStats();
+        long total = city.getTotalCells();
+        TextView view = runner.getView();
+        view.message("forest %d cells (%.1f%%)", city.getCells(CellType.WOODS),
+                100.0 * city.getCells(CellType.WOODS) / total);
+        view.message("water %d cells (%.1f%%)", city.getCells(CellType.RIVER),
+                100.0 * city.getCells(CellType.RIVER) / total);
+        view.message("buildable %d cells (%.1f%%)", city.getBuildableCells(),
+                100.0 * city.getBuildableCells() / total);
+    }
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
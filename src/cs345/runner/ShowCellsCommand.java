@@ -0,0 +1,37 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.CityStats;
+import cs345.model.cell.CellType;
+
+/**
+ * Display the number of cells of each type
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class ShowCellsCommand implements Command {
+
+    private TextRunner runner;
+
+    ShowCellsCommand(TextRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        CityStats city = runner.getCityStats();
+        for (CellType type : CellType.values()) {
+            runner.getView().message("%s %d", type, city.getCells(type));
+        }
+    }
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
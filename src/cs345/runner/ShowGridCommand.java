@@ -21,6 +21,16 @@ class ShowGridCommand implements Command {
 
     @Override
     public void run() throws CommandException {
-        runner.getView().displayGrid();
+        try {
+            runner.getView().displayGrid(runner.getGridView());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CommandException("Interrupted while waiting for the grid");
+        }
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
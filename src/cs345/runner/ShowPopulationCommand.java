@@ -22,6 +22,11 @@ class ShowPopulationCommand implements Command {
     @Override
     public void run() throws CommandException {
         // Show the current population
-        runner.getView().message("%d", runner.getGame().curResPop);
+        runner.getView().message("%d", runner.getGameView().population);
     }
-}
\ No newline at end of file
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
@@ -0,0 +1,48 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.SimulatorStats;
+
+/**
+ * Display the simulator statistics
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class ShowStatsCommand implements Command {
+
+    private TextRunner runner;
+
+    ShowStatsCommand(TextRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        SimulatorStats stats = runner.getGameView().stats;
+        if (stats == null) {
+            throw new CommandException("Simulator statistics are not enabled");
+        }
+        TextView view = runner.getView();
+        view.message("steps %d, idle steps skipped %d",
+                stats.steps, stats.skippedSteps);
+        view.message("actions %d, reschedules %d, removals %d",
+                stats.actions, stats.reschedules, stats.removals);
+        view.message("queue depth %d, max %d", stats.queueDepth, stats.maxQueueDepth);
+        view.message("step time avg %.1f us, max %.1f us, last %.1f us (%d actions)",
+                stats.averageStepNanos() / 1e3, stats.maxStepNanos / 1e3,
+                stats.lastStepNanos / 1e3, stats.lastStepActions);
+        for (SimulatorStats.ActionStats action : stats.byAction) {
+            view.message("%s: %d runs, %.3f ms", action.name, action.count, action.nanos / 1e6);
+        }
+    }
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
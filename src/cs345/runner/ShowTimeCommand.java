@@ -24,8 +24,12 @@ class ShowTimeCommand implements Command {
     @Override
     public void run() throws CommandException {
         // Show the current time
-        SimulatorTime.TimeData curTime =
-                runner.getGame().getCurrentTime().getTimeData();
+        SimulatorTime.TimeData curTime = runner.getGameView().time;
         runner.getView().message("%s", curTime);
    }
-}
\ No newline at end of file
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
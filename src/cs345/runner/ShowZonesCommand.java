@@ -0,0 +1,31 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+/**
+ * Display the number of zones of each type
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class ShowZonesCommand implements Command {
+
+    private TextRunner runner;
+
+    ShowZonesCommand(TextRunner runner) {
+        this.runner = runner;
+    }
+
+    @Override
+    public void run() throws CommandException {
+        runner.getView().message("residential %d", runner.getCityStats().getResidentialZones());
+    }
+
+    @Override
+    public boolean changesGame() {
+        return false;
+    }
+}
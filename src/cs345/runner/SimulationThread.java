@@ -0,0 +1,235 @@
+/* This work by Christopher Reedy, email address: Chris.Reedy@wwu.edu,
+ * is licensed under the Creative Commons Attribution 4.0 International
+ * License. To view a copy of this license, visit
+ * http://creativecommons.org/licenses/by/4.0/.
+ */
+
+package cs345.runner;
+
+import cs345.model.Cs345Opolis;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs the simulation of a game on its own thread.
+ *
+ * While the thread is running, it is the only thread that uses the game.
+ * Commands that change the game are submitted to an inbox, a lock free queue
+ * that any thread can add to. The simulation thread takes the commands from
+ * the inbox and runs them in order, always between two steps of the game. A
+ * step command does not step the game when it runs. Instead, it adds to the
+ * number of steps the thread still has to do.
+ *
+ * After a batch of steps, or after running commands, the thread publishes a
+ * GameView of the game. Show commands display the published view, so they
+ * can be answered immediately while the game is stepping. The grid is too
+ * large to copy after every batch, so the show grid command asks the thread
+ * for a GridView (see getGridView), which the thread captures between two
+ * steps.
+ *
+ * Steps done by the thread are recorded in the journal of the runner just
+ * before the next command that changes the game, or when the thread has no
+ * more work.
+ *
+ * @author Chris Reedy (Chris.Reedy@wwu.edu)
+ */
+class SimulationThread implements Runnable {
+
+    /* The longest time the thread steps before it looks at the inbox and
+     * publishes a view. */
+    private static final long PUBLISH_NANOS = 20_000_000L;
+
+    private final TextRunner runner;
+    private final Cs345Opolis game;
+    private final Thread thread;
+
+    private final Queue<Command> inbox = new ConcurrentLinkedQueue<>();
+    private final Queue<CompletableFuture<GridView>> gridRequests = new ConcurrentLinkedQueue<>();
+    private volatile GameView view;
+    private volatile boolean stopping = false;
+    private volatile boolean idle = false; // true when the inbox is done and there are no steps to do
+    private volatile boolean stopped = false;
+
+    /* Used only by the simulation thread. */
+    private int pendingSteps = 0; // Steps still to do
+    private int unjournaledSteps = 0; // Steps done and not yet in the journal
+    private boolean changed = false; // The game has changed since the last view
+    private GridView gridView = null; // The last grid view captured
+
+    /**
+     * Create the simulation thread for a runner. The thread is not started.
+     * @param runner the runner
+     */
+    SimulationThread(TextRunner runner) {
+        this.runner = runner;
+        this.game = runner.getGame();
+        this.view = GameView.capture(game);
+        this.thread = new Thread(this, "cs345opolis-simulation");
+        this.thread.setDaemon(true);
+    }
+
+    /* Start the thread. */
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Add a command to the inbox. This may be called from any thread.
+     * @param cmd the command
+     */
+    void submit(Command cmd) {
+        inbox.add(cmd);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Return the most recently published view of the game.
+     * @return the view
+     */
+    GameView getView() {
+        return view;
+    }
+
+    /**
+     * Return a view of the grid of the game as it is now. The view is
+     * captured by the simulation thread between two steps, and this waits
+     * for it. This may be called from any thread.
+     * @return the view
+     * @throws InterruptedException if interrupted while waiting
+     */
+    GridView getGridView() throws InterruptedException {
+        CompletableFuture<GridView> request = new CompletableFuture<>();
+        gridRequests.add(request);
+        LockSupport.unpark(thread);
+        if (stopped) {
+            // The thread has stopped, and no longer changes the game
+            answerGridRequests();
+        }
+        try {
+            return request.get();
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Grid view not captured", ex.getCause());
+        }
+    }
+
+    /**
+     * Add to the number of steps to do. Called by step commands, which run
+     * on the simulation thread.
+     * @param steps the number of steps
+     */
+    void addSteps(int steps) {
+        pendingSteps += steps;
+    }
+
+    /**
+     * Wait until the commands in the inbox have run and all their steps are
+     * done, then stop the thread.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void finish() throws InterruptedException {
+        synchronized (this) {
+            while (!stopped && !(idle && inbox.isEmpty())) {
+                wait();
+            }
+        }
+        stop();
+    }
+
+    /**
+     * Stop the thread after the current step, abandoning any steps and
+     * commands that are still to be done.
+     * @throws InterruptedException if interrupted while waiting for the thread
+     */
+    void stop() throws InterruptedException {
+        stopping = true;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    @Override public void run() {
+        try {
+            while (!stopping) {
+                idle = false;
+                runCommands();
+                answerGridRequests();
+                doSteps();
+                publish();
+                if (pendingSteps == 0 && inbox.isEmpty()) {
+                    journalSteps();
+                    synchronized (this) {
+                        idle = true;
+                        notifyAll();
+                    }
+                    while (!stopping && inbox.isEmpty() && gridRequests.isEmpty()) {
+                        LockSupport.park(this);
+                    }
+                }
+            }
+            journalSteps();
+        } finally {
+            synchronized (this) {
+                stopped = true;
+                notifyAll();
+            }
+            answerGridRequests();
+        }
+    }
+
+    /* Run the commands in the inbox. */
+    private void runCommands() {
+        Command cmd;
+        while (!stopping && (cmd = inbox.poll()) != null) {
+            journalSteps();
+            runner.apply(cmd);
+            changed = true;
+        }
+    }
+
+    /* Step the game until there are no steps left, a command arrives, or it
+     * is time to publish a view. */
+    private void doSteps() {
+        long deadline = System.nanoTime() + PUBLISH_NANOS;
+        while (pendingSteps > 0 && inbox.isEmpty() && gridRequests.isEmpty() && !stopping) {
+            game.step();
+            pendingSteps--;
+            unjournaledSteps++;
+            changed = true;
+            if (System.nanoTime() - deadline >= 0)
+                break;
+        }
+    }
+
+    /* Record the steps done since the last record in the journal. */
+    private void journalSteps() {
+        if (unjournaledSteps > 0) {
+            runner.journalSteps(unjournaledSteps);
+            unjournaledSteps = 0;
+        }
+    }
+
+    /* Publish a view of the game, if it has changed. */
+    private void publish() {
+        if (changed) {
+            view = GameView.capture(game);
+            changed = false;
+        }
+    }
+
+    /* Capture a view of the grid for each request. This is called by the
+     * simulation thread, or by any thread once it has stopped. */
+    private synchronized void answerGridRequests() {
+        CompletableFuture<GridView> request;
+        while ((request = gridRequests.poll()) != null) {
+            try {
+                gridView = GridView.capture(game, gridView);
+                request.complete(gridView);
+            } catch (RuntimeException ex) {
+                request.completeExceptionally(ex);
+            }
+        }
+    }
+}
@@ -6,8 +6,12 @@
 
 package cs345.runner;
 
+import java.io.IOException;
+
 /**
- * A step Command, includes an interval size and a number of intervals.
+ * A step Command, includes an interval size and a number of intervals. A
+ * fast step command steps the game approximately, see
+ * Cs345Opolis.fastForward.
  *
  * @author Chris Reedy (Chris.Reedy@wwu.edu)
  */
@@ -16,15 +20,39 @@ class StepCommand implements Command {
     private TextRunner runner;
     private int num;
     private int interval;
+    private boolean fast;
 
     StepCommand(TextRunner runner, int n, int interval) {
+        this(runner, n, interval, false);
+    }
+
+    StepCommand(TextRunner runner, int n, int interval, boolean fast) {
         this.runner = runner;
         this.num = n;
         this.interval = interval;
+        this.fast = fast;
+    }
+
+    /* Return the number of steps for the command. */
+    int getSteps() {
+        return num * interval;
     }
 
     @Override
     public void run() throws CommandException {
-        runner.step(num, interval);
+        if (fast) {
+            runner.fastForward(num * interval);
+        } else {
+            runner.step(num, interval);
+        }
+    }
+
+    @Override
+    public void writeTo(CommandJournal journal) throws IOException {
+        if (fast) {
+            journal.writeFastStep(num * interval, runner.getGame());
+        } else {
+            runner.journalStep(journal, num * interval);
+        }
     }
-}
\ No newline at end of file
+}
@@ -6,10 +6,14 @@
 
 package cs345.runner;
 
+import cs345.model.CityStats;
 import cs345.model.Cs345Opolis;
+import cs345.model.Grid;
 import cs345.model.MapGenerator;
 import cs345.model.ModelFactory;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.*;
 
@@ -20,12 +24,24 @@ import java.util.*;
  * to System.out. Command input and text output are handled by the TextView
  * class.
  *
+ * If the property cs345opolis.runner.async is true, the game is simulated on
+ * its own thread (see SimulationThread) and a step command returns as soon
+ * as it is read. Commands that change the game are run by that thread
+ * between steps, and show commands display the last published view of the
+ * game. At the end of the input, the runner waits for all steps to be done.
+ * The commands change the game the same way either way, so the setting
+ * is not recorded in a journal.
+ *
+ * A runner may keep a journal of the commands that change the game. A game
+ * can be rebuilt from its journal by replaying it (see CommandJournal).
+ *
  * @author Chris Reedy (Chris.Reedy@wwu.edu)
  */
 public class TextRunner {
 
     public static final String GRID_WIDTH = "cs345opolis.grid.width";
     public static final String GRID_HEIGHT = "cs345opolis.grid.height";
+    public static final String RUNNER_ASYNC = "cs345opolis.runner.async";
 
     private Properties props;
 
@@ -41,16 +57,91 @@ public class TextRunner {
 
     private final TextView view;
 
+    private CommandJournal journal = null;
+    private boolean mapReady = false; // true once the map has been initialized
+
+    private SimulationThread simulation = null; // null unless running asynchronously
+
     /**
      * Create a text runner on a model from the given factory.
      * @param factory a factory that creates a model object
      */
     public TextRunner(ModelFactory factory, Properties props) {
+        this(factory, props, new Scanner(System.in), System.out);
+    }
+
+    /* Create a text runner with the given input and output. */
+    TextRunner(ModelFactory factory, Properties props, Scanner input, PrintStream output) {
         this.props = props;
         this.game = factory.makeModel(this.props);
-        this.input = new Scanner(System.in);
-        this.output = System.out;
+        this.input = input;
+        this.output = output;
+        this.view = new TextView(this, game, input, output);
+    }
+
+    /* Create a text runner for a fork of the game of another runner. The
+     * fork runner shares the input and output of the other runner. */
+    private TextRunner(TextRunner original, Cs345Opolis fork) {
+        this.props = original.props;
+        this.game = fork;
+        this.input = original.input;
+        this.output = original.output;
         this.view = new TextView(this, game, input, output);
+        this.newGridOK = false;
+        this.mapReady = true;
+    }
+
+    /**
+     * Return a runner for a fork of the game of this runner. Commands run
+     * by the fork runner change the fork. It has no journal.
+     * @param fork the fork of the game
+     * @return the runner
+     */
+    TextRunner forkRunner(Cs345Opolis fork) {
+        return new TextRunner(this, fork);
+    }
+
+    /**
+     * Create a text runner that records the commands that change the game in
+     * the given journal file. Any existing file is replaced.
+     * @param factory a factory that creates a model object
+     * @param defaults the default properties
+     * @param journalFile the journal file
+     * @return the runner
+     * @throws IOException if the journal cannot be created
+     */
+    public static TextRunner withJournal(ModelFactory factory, Properties defaults,
+                                         File journalFile) throws IOException {
+        Properties props = new Properties();
+        props.putAll(defaults);
+        CommandJournal journal = CommandJournal.create(journalFile, props);
+        TextRunner runner = new TextRunner(factory, props);
+        runner.journal = journal;
+        return runner;
+    }
+
+    /**
+     * Create a text runner by replaying the given journal file. The game is
+     * rebuilt without any output and checked against the journal. Further
+     * commands are appended to the journal.
+     * @param factory a factory that creates a model object
+     * @param defaults the default properties
+     * @param journalFile the journal file
+     * @return the runner
+     * @throws IOException if the journal cannot be read or replaying it does
+     *      not rebuild the recorded game
+     */
+    public static TextRunner replay(ModelFactory factory, Properties defaults,
+                                    File journalFile) throws IOException {
+        Properties props = new Properties();
+        props.putAll(defaults);
+        props.setProperty(Grid.GRID_REUSE_PROP, "false"); // The map must be generated again
+        CommandJournal.readHeader(journalFile, props);
+        TextRunner runner = new TextRunner(factory, props);
+        runner.initMap(true);
+        runner.mapReady = true;
+        runner.journal = CommandJournal.replay(journalFile, runner);
+        return runner;
     }
 
     /**
@@ -64,8 +155,15 @@ public class TextRunner {
      * System.out.
      */
     public void run() {
-        initMap(true);
+        if (!mapReady) {
+            initMap(true);
+            mapReady = true;
+        }
         view.welcomeMessage();
+        if (Boolean.parseBoolean(props.getProperty(RUNNER_ASYNC, "false"))) {
+            simulation = new SimulationThread(this);
+            simulation.start();
+        }
         output.print("> ");
         while (!quit && input.hasNextLine()) {
             String line = input.nextLine().trim();
@@ -73,7 +171,11 @@ public class TextRunner {
                 String[] words = line.split("\\s+");
                 try {
                     Command cmd = view.parseCommand(words);
-                    cmd.run();
+                    if (simulation != null && cmd.changesGame()) {
+                        simulation.submit(cmd);
+                    } else {
+                        apply(cmd);
+                    }
                 } catch (CommandException ex) {
                     view.message(ex.getMessage());
                 }
@@ -82,6 +184,114 @@ public class TextRunner {
                 output.print("> ");
             }
         }
+        if (simulation != null) {
+            try {
+                if (quit) {
+                    simulation.stop();
+                } else {
+                    simulation.finish();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            simulation = null;
+        }
+        closeJournal();
+    }
+
+    /**
+     * Run a command and record it in the journal. Errors are reported as
+     * messages. When the game is simulated on its own thread, commands that
+     * change the game are applied by that thread.
+     * @param cmd the command
+     */
+    void apply(Command cmd) {
+        try {
+            if (journal != null && cmd.changesGame() && !(cmd instanceof StepCommand))
+                journal.takeState(); // The run of steps before the command has ended
+            cmd.run();
+            if (journal != null) {
+                cmd.writeTo(journal);
+            }
+        } catch (CommandException ex) {
+            view.message(ex.getMessage());
+        } catch (IOException ex) {
+            view.message("Journal stopped: %s", ex.getMessage());
+            closeJournal();
+        }
+    }
+
+    /**
+     * Record a step command in the journal. When the game is simulated on
+     * its own thread, nothing is recorded, since the steps have not been
+     * done yet. The simulation thread records them with journalSteps.
+     * @param journal the journal
+     * @param steps the number of steps
+     * @throws IOException if the journal cannot be written
+     */
+    void journalStep(CommandJournal journal, int steps) throws IOException {
+        if (simulation == null)
+            journal.writeStep(steps, game);
+    }
+
+    /**
+     * Record steps done by the simulation thread in the journal, if there is
+     * one.
+     * @param steps the number of steps
+     */
+    void journalSteps(int steps) {
+        if (journal != null) {
+            try {
+                journal.writeStep(steps, game);
+            } catch (IOException ex) {
+                view.message("Journal stopped: %s", ex.getMessage());
+                closeJournal();
+            }
+        }
+    }
+
+    /**
+     * Return a view of the game for the show commands. When the game is
+     * simulated on its own thread, this is the last view published by that
+     * thread.
+     * @return the view
+     */
+    GameView getGameView() {
+        return simulation != null ? simulation.getView() : GameView.capture(game);
+    }
+
+    /**
+     * Return the counts of the cells of the grid of the game. These are kept
+     * by the grid as it changes, so no view is captured. When the game is
+     * simulated on its own thread, they are the counts of the last view
+     * published by that thread.
+     * @return the counts
+     */
+    CityStats getCityStats() {
+        return simulation != null ? simulation.getView().city : game.getGrid().cityStats();
+    }
+
+    /**
+     * Return a view of the grid of the game for the show grid command. When
+     * the game is simulated on its own thread, the view is captured by that
+     * thread between two steps.
+     * @return the view
+     * @throws InterruptedException if interrupted while waiting for the view
+     */
+    GridView getGridView() throws InterruptedException {
+        return simulation != null ? simulation.getGridView() : GridView.capture(game, null);
+    }
+
+    /* Close the journal, if there is one. */
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                view.message("Journal not closed: %s", ex.getMessage());
+            }
+            journal = null;
+        }
     }
 
     /** Get the TextView object
@@ -96,20 +306,45 @@ public class TextRunner {
         return game;
     }
 
+    /** Get the properties of the game
+     */
+    Properties getProps() {
+        return props;
+    }
+
+    /* Return true if a quit command has been run. */
+    boolean isQuit() {
+        return quit;
+    }
+
     /* Set quit to be true. */
     void setQuit() {
         quit = true;
     }
 
-    /* Initialize a map. */
+    /* Initialize a map. With a new generator, a map saved in the map file
+     * may be used in place of a new map (see Cs345Opolis.openSavedGrid). */
     void initMap(boolean newGenerator) {
         int width = Integer.parseInt(props.getProperty(GRID_WIDTH));
         int height = Integer.parseInt(props.getProperty(GRID_HEIGHT));
-        if (newGenerator)
+        if (newGenerator) {
             mapGen = new MapGenerator(props);
+            if (game.openSavedGrid(width, height, mapGen))
+                return;
+        }
         game.newMapGrid(width, height, mapGen);
     }
 
+    /** Step the game the given number of steps, approximately. This is done
+     * immediately, even when the game is simulated on its own thread.
+     *
+     * @param steps number of steps
+     */
+    void fastForward(int steps) {
+        newGridOK = false; // step command invalidates new grid
+        game.fastForward(steps);
+    }
+
     /** Step the game the given number (num) of intervals.
      *
      * @param num number of intervals
@@ -117,8 +352,10 @@ public class TextRunner {
      */
     void step(int num, int interval) {
         newGridOK = false; // step command invalidates new grid
-        for (int step = 0; step < num * interval; step++) {
-            game.step();
+        if (simulation != null) {
+            simulation.addSteps(num * interval);
+        } else {
+            game.advance(num * interval);
         }
     }
 
@@ -8,9 +8,11 @@ package cs345.runner;
 
 import cs345.model.*;
 import cs345.model.cell.CellType;
-import cs345.model.cell.Residential;
 
 import java.io.PrintStream;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
 /**
@@ -34,18 +36,42 @@ import java.util.*;
  *     per period). If step is given with no additional arguments, n = 1 is
  *     used. The number of steps in a period is determined by the constants
  *     in Simulator.
+ * step n period fast
+ *     step the simulator approximately, sampling the populations of zones
+ *     instead of updating them every week. See Cs345Opolis.fastForward.
  * show grid
  *     output the grid to the console
  * show time
  *     output the current time to the console
  * show population
  *     output the current population to the console
+ * show stats
+ *     output the statistics recorded by the simulator to the console
+ * show cells
+ *     output the number of cells of each type to the console
+ * show area
+ *     output the forest, water and buildable area to the console
+ * show zones
+ *     output the number of zones of each type to the console
  * zone residential x y
  *     create a residential zone centered at the given grid coordinates
+ * find sites [k] [x y w h]
+ *     list the centers where a residential zone can be created, in row
+ *     order. If k is given, only the first k are listed. If a rectangle is
+ *     given, only zones inside the rectangle are listed.
  * bulldoze x1 y1 x2 y2
  *     bulldoze the rectangle bounded by the given coordinates. The coordinates
  *     are assumed to be corners of a rectangle. The left and upper edges of the
  *     rectangle are inclusive and the right and lower edges are exclusive.
+ * save file
+ *     save the complete state of the game to the file
+ * load file
+ *     replace the game with the game saved in the file
+ * fork n [period] ; command ; command ...
+ *     preview a plan without changing the game. The commands of the plan,
+ *     which may be zone and bulldoze commands, are run on a fork of the
+ *     game. Then the fork, and a fork without the plan, are stepped as by
+ *     step n [period], and their populations are shown.
  *
  * @author Chris Reedy (Chris.Reedy@wwu.edu)
  */
@@ -112,13 +138,13 @@ class TextView {
         CELL_TYPE_STRING_MAP.put(CellType.RESIDENTIAL, "R?");
     }
 
-    /** Display the grid for the game.
+    /** Display the grid of a view of the game.
+     * @param view the view
      */
-    void displayGrid() {
+    void displayGrid(GridView view) {
         // Show the grid
-        Grid grid = game.getGrid();
-        int nRows = grid.getHeight();
-        int nCols = grid.getWidth();
+        int nRows = view.height;
+        int nCols = view.width;
 
         // Each line of output is a separate message.
         StringBuilder temp = new StringBuilder();
@@ -143,15 +169,13 @@ class TextView {
                 temp.append(String.format("%2d", row % 10));
             }
             for (int col = 0; col < nCols; col++) {
-                Cell cell = grid.cellAt(col, row);
-                CellType cellType = cell.getCellType();
+                CellType cellType = view.cellTypeAt(col, row);
                 String cellString = CELL_TYPE_STRING_MAP.get(cellType);
                 // For RESIDENTIAL zones, the population / 8 is added to the
                 // output.
                 if (cellType == CellType.RESIDENTIAL) {
                     // Add population to output
-                    Residential resCell = (Residential)cell;
-                    int resPop = (resCell.getPopulation() + 7) / 8;
+                    int resPop = (view.populationAt(col, row) + 7) / 8;
                     char popChar;
                     if (resPop == 0)
                         popChar = ' ';
@@ -242,7 +266,11 @@ class TextView {
                     new CommandData("step", 2, TextView::stepCommand),
                     new CommandData("show", 2, TextView::showCommand),
                     new CommandData("zone", 2, TextView::zoneCommand),
-                    new CommandData("bulldoze", 3, TextView::bulldozeCommand)
+                    new CommandData("bulldoze", 3, TextView::bulldozeCommand),
+                    new CommandData("save", 2, TextView::saveCommand),
+                    new CommandData("load", 2, TextView::loadCommand),
+                    new CommandData("fork", 2, TextView::forkCommand),
+                    new CommandData("find", 2, TextView::findCommand)
             ));
 
     /* Process a single command. */
@@ -299,6 +327,7 @@ class TextView {
     private Command stepCommand(String command, String[] words) throws CommandException {
         int n = 1;
         int interval = 1;
+        boolean fast = false;
         if (words.length > 1) {
             // Convert n
             try {
@@ -319,11 +348,17 @@ class TextView {
                 interval = intervalData.interval * Simulator.STEPS_PER_PERIOD;
 
                 if (words.length > 3) {
+                    if (!"fast".startsWith(words[3].toLowerCase())) {
+                        throw new CommandException("Not a step option: %s", words[3]);
+                    }
+                    fast = true;
+                }
+                if (words.length > 4) {
                     throw new CommandException("Step command has too many words");
                 }
             }
         }
-        return new StepCommand(parent, n, interval);
+        return new StepCommand(parent, n, interval, fast);
     }
 
     /* Interface for SubcommandData. */
@@ -350,7 +385,11 @@ class TextView {
             Collections.unmodifiableCollection(Arrays.asList(
                     new SubcommandData("grid", 2, TextView::showGridCommand),
                     new SubcommandData("time", 2, TextView::showTimeCommand),
-                    new SubcommandData("population", 3, TextView::showPopCommand)
+                    new SubcommandData("population", 3, TextView::showPopCommand),
+                    new SubcommandData("stats", 2, TextView::showStatsCommand),
+                    new SubcommandData("cells", 2, TextView::showCellsCommand),
+                    new SubcommandData("area", 2, TextView::showAreaCommand),
+                    new SubcommandData("zones", 2, TextView::showZonesCommand)
             ));
 
     /* Process a show command. */
@@ -391,6 +430,38 @@ class TextView {
         return new ShowPopulationCommand(parent);
     }
 
+    /* Process a show stats command. */
+    private Command showStatsCommand(String command, String subcommand, String[] words) throws CommandException {
+        if (words.length > 2) {
+            throw new CommandException("Too many arguments for %s %s", command, subcommand);
+        }
+        return new ShowStatsCommand(parent);
+    }
+
+    /* Process a show cells command. */
+    private Command showCellsCommand(String command, String subcommand, String[] words) throws CommandException {
+        if (words.length > 2) {
+            throw new CommandException("Too many arguments for %s %s", command, subcommand);
+        }
+        return new ShowCellsCommand(parent);
+    }
+
+    /* Process a show area command. */
+    private Command showAreaCommand(String command, String subcommand, String[] words) throws CommandException {
+        if (words.length > 2) {
+            throw new CommandException("Too many arguments for %s %s", command, subcommand);
+        }
+        return new ShowAreaCommand(parent);
+    }
+
+    /* Process a show zones command. */
+    private Command showZonesCommand(String command, String subcommand, String[] words) throws CommandException {
+        if (words.length > 2) {
+            throw new CommandException("Too many arguments for %s %s", command, subcommand);
+        }
+        return new ShowZonesCommand(parent);
+    }
+
     /* Collections of subcommands for the zone command. */
     private static final Collection<SubcommandData> ZONE_COMMANDS =
             Collections.unmodifiableCollection(Arrays.asList(
@@ -421,6 +492,51 @@ class TextView {
         return new ZoneCommand(parent, zoneType, loc);
     }
 
+    /* Collections of subcommands for the find command. */
+    private static final Collection<SubcommandData> FIND_COMMANDS =
+            Collections.unmodifiableCollection(Arrays.asList(
+                    new SubcommandData("sites", 1, TextView::findSitesCommand)
+            ));
+
+    /* Process the find command. */
+    private Command findCommand(String command, String[] words) throws CommandException {
+        if (words.length < 2) {
+            throw new CommandException("No option specified for %s", command);
+        }
+        SubcommandData foundCommand = findCommand(FIND_COMMANDS, words[1]);
+        if (foundCommand != null) {
+            return foundCommand.processor.process(this, command, foundCommand.command, words);
+        } else {
+            throw new CommandException("Don't know how to find %s", words[1]);
+        }
+    }
+
+    /* Process a find sites command. */
+    private Command findSitesCommand(String command, String subcommand, String[] words)
+            throws CommandException {
+        int limit = 0;
+        int next = 2;
+        if (words.length == 3 || words.length == 7) {
+            try {
+                limit = Integer.parseInt(words[next]);
+            } catch (NumberFormatException ex) {
+                throw new CommandException("Not a number: %s", words[next]);
+            }
+            if (limit <= 0) {
+                throw new CommandException("Number of sites must be > 0");
+            }
+            next++;
+        }
+        GridRectangle rect = null;
+        if (words.length > next) {
+            rect = getGridRectangle(words, next);
+            if (words.length > next + 4) {
+                throw new CommandException("Too many arguments for %s %s", command, subcommand);
+            }
+        }
+        return new FindSitesCommand(parent, limit, rect);
+    }
+
     /* Process a bulldoze command. */
     private Command bulldozeCommand(String command, String[] words) throws CommandException {
         GridRectangle rect = getGridRectangle(words, 1);
@@ -430,6 +546,57 @@ class TextView {
         return new BulldozeCommand(parent, rect);
     }
 
+    /* Process a save command. */
+    private Command saveCommand(String command, String[] words) throws CommandException {
+        return new SaveCommand(parent, getFile(command, words));
+    }
+
+    /* Process a load command. */
+    private Command loadCommand(String command, String[] words) throws CommandException {
+        return new LoadCommand(parent, getFile(command, words));
+    }
+
+    /* Process a fork command. */
+    private Command forkCommand(String command, String[] words) throws CommandException {
+        // The commands of the plan are separated by ";"
+        String[] parts = String.join(" ", words).split(";");
+        String[] stepWords = parts[0].trim().split("\\s+");
+        if (stepWords.length < 2) {
+            throw new CommandException("Missing number of steps for %s", command);
+        }
+        StepCommand step = (StepCommand) stepCommand(command, stepWords);
+        List<String[]> plan = new ArrayList<>();
+        for (int i = 1; i < parts.length; i++) {
+            String line = parts[i].trim();
+            if (line.length() == 0) {
+                continue;
+            }
+            String[] planWords = line.split("\\s+");
+            // Check the command now, it is run later on the fork
+            Command planCommand = parseCommand(planWords);
+            if (!(planCommand instanceof ZoneCommand || planCommand instanceof BulldozeCommand)) {
+                throw new CommandException("Only zone and bulldoze commands can be in a %s", command);
+            }
+            plan.add(planWords);
+        }
+        return new ForkCommand(parent, step.getSteps(), plan);
+    }
+
+    /* Get the file name argument of a command. */
+    private Path getFile(String command, String[] words) throws CommandException {
+        if (words.length < 2) {
+            throw new CommandException("Missing file name for %s", command);
+        }
+        if (words.length > 2) {
+            throw new CommandException("Too many arguments for %s", command);
+        }
+        try {
+            return Paths.get(words[1]);
+        } catch (InvalidPathException ex) {
+            throw new CommandException("Invalid file name %s", words[1]);
+        }
+    }
+
     /* Get a grid location from words starting at start. */
     private GridLocation getGridLoc(String[] words, int start) throws CommandException {
         if (words.length < start + 2) {
@@ -11,6 +11,8 @@ import cs345.model.GridLocation;
 import cs345.model.GridRectangle;
 import cs345.model.cell.Residential;
 
+import java.io.IOException;
+
 /**
  * A zone Command, includes the type of zone to be created.
  *
@@ -48,4 +50,9 @@ class ZoneCommand implements Command {
                 throw new AssertionError("Unknown zone type " + zoneType);
         }
     }
-}
\ No newline at end of file
+
+    @Override
+    public void writeTo(CommandJournal journal) throws IOException {
+        journal.writeZone(zoneType, loc);
+    }
+}